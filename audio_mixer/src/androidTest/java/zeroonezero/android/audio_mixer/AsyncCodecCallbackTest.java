@@ -0,0 +1,119 @@
+package zeroonezero.android.audio_mixer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Handler;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SdkSuppress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Events which the codec posted before a flush mustn't be given out after it.
+ */
+@RunWith(AndroidJUnit4.class)
+@SdkSuppress(minSdkVersion = 23)
+public class AsyncCodecCallbackTest {
+
+    private MediaCodec codec;
+    private AsyncCodecCallback callback;
+
+    @Before
+    public void setUp() throws IOException {
+        MediaFormat format = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC, 44100, 2);
+        // AAC LC, 44100 Hz, stereo
+        format.setByteBuffer("csd-0", ByteBuffer.wrap(new byte[]{0x12, 0x10}));
+
+        codec = MediaCodec.createDecoderByType(MediaFormat.MIMETYPE_AUDIO_AAC);
+        callback = new AsyncCodecCallback("async-codec-callback-test");
+        callback.attach(codec);
+        codec.configure(format, null, null, 0);
+        codec.start();
+    }
+
+    @After
+    public void tearDown() {
+        codec.stop();
+        codec.release();
+        callback.release();
+    }
+
+    @Test(timeout = 10000)
+    public void eventsPostedBeforeFlushAreDiscarded() throws Exception {
+        final Handler handler = getCallbackHandler();
+
+        // Keeps the callback thread busy, so events pile up behind it like during a flush
+        final CountDownLatch release = new CountDownLatch(1);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onInputBufferAvailable(codec, 0);
+                MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+                info.set(0, 4096, 0, 0);
+                callback.onOutputBufferAvailable(codec, 1, info);
+            }
+        });
+
+        final CountDownLatch flushed = new CountDownLatch(1);
+        Thread flushThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                callback.flush(codec);
+                flushed.countDown();
+            }
+        });
+        flushThread.start();
+
+        // Flush must wait for the events which are in front of it
+        assertFalse(flushed.await(200, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(flushed.await(5, TimeUnit.SECONDS));
+        flushThread.join();
+
+        // The codec isn't started again, so nothing may be left
+        assertEquals(MediaCodec.INFO_TRY_AGAIN_LATER, callback.pollInputBuffer());
+        assertEquals(MediaCodec.INFO_TRY_AGAIN_LATER, callback.pollOutputBuffer(new MediaCodec.BufferInfo()));
+    }
+
+    @Test(timeout = 10000)
+    public void eventsAfterRestartAreKept() {
+        callback.flush(codec);
+        codec.start();
+
+        // A started decoder offers its input buffers
+        int index = MediaCodec.INFO_TRY_AGAIN_LATER;
+        while (index < 0) {
+            callback.awaitEvent();
+            index = callback.pollInputBuffer();
+        }
+        assertNotNull(codec.getInputBuffer(index));
+    }
+
+    private Handler getCallbackHandler() throws Exception {
+        Field field = AsyncCodecCallback.class.getDeclaredField("callbackHandler");
+        field.setAccessible(true);
+        return (Handler) field.get(callback);
+    }
+}
@@ -0,0 +1,127 @@
+package zeroonezero.android.audio_mixer;
+
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+
+import zeroonezero.android.audio_mixer.input.MappedAudioInput;
+
+import static org.junit.Assert.*;
+
+/**
+ * Mixes into encoders whose external muxers are started between {@link AudioMixer#start()} and processing,
+ * as when audio is muxed with video.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ExternalMuxerTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNEL_COUNT = 2;
+    private static final long DURATION_US = 2000000;
+
+    private File dir;
+    private File source;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = new File(InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir(), "external-muxer-test");
+        assertTrue(dir.isDirectory() || dir.mkdirs());
+
+        // A tone, so the encoders have something to encode
+        source = new File(dir, "source.wav");
+        final int frames = (int) (DURATION_US * SAMPLE_RATE / 1000000);
+        ShortBuffer values = ShortBuffer.allocate(frames * CHANNEL_COUNT);
+        for (int i = 0; i < frames; i++) {
+            short value = (short) (Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE) * 8000);
+            values.put(value).put(value);
+        }
+        values.flip();
+
+        WavAudioOutput output = new WavAudioOutput(source.getPath());
+        output.start(SAMPLE_RATE, CHANNEL_COUNT, 0);
+        output.write(values);
+        output.end();
+        output.release();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void mixesIntoExternalMuxer() throws IOException {
+        File file = new File(dir, "single.mp4");
+        MediaMuxer muxer = new MediaMuxer(file.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+
+        AudioMixer mixer = new AudioMixer(muxer);
+        mixer.addDataSource(new MappedAudioInput(source.getPath()));
+        mixer.start();
+        muxer.start();
+        mixer.processSync();
+        mixer.release();
+        muxer.stop();
+        muxer.release();
+
+        assertAudioTrack(file, SAMPLE_RATE, CHANNEL_COUNT);
+    }
+
+    @Test
+    public void fansOutIntoTwoExternalMuxers() throws IOException {
+        File first = new File(dir, "first.mp4");
+        File second = new File(dir, "second.mp4");
+        MediaMuxer firstMuxer = new MediaMuxer(first.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        MediaMuxer secondMuxer = new MediaMuxer(second.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+
+        // Outputs get ready one after the other, the first one is written to while the second one isn't ready
+        FanOutAudioOutput output = new FanOutAudioOutput()
+                .addOutput(new MuxerAudioOutput(firstMuxer))
+                .addOutput(new MuxerAudioOutput(secondMuxer), 22050, 1, 64000);
+
+        AudioMixer mixer = new AudioMixer(output);
+        mixer.addDataSource(new MappedAudioInput(source.getPath()));
+        mixer.start();
+        firstMuxer.start();
+        secondMuxer.start();
+        mixer.processSync();
+        mixer.release();
+        firstMuxer.stop();
+        firstMuxer.release();
+        secondMuxer.stop();
+        secondMuxer.release();
+
+        assertAudioTrack(first, SAMPLE_RATE, CHANNEL_COUNT);
+        assertAudioTrack(second, 22050, 1);
+    }
+
+    private static void assertAudioTrack(File file, int sampleRate, int channelCount) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(file.getPath());
+            assertEquals(1, extractor.getTrackCount());
+
+            MediaFormat format = extractor.getTrackFormat(0);
+            assertEquals(MediaFormat.MIMETYPE_AUDIO_AAC, format.getString(MediaFormat.KEY_MIME));
+            assertEquals(sampleRate, format.getInteger(MediaFormat.KEY_SAMPLE_RATE));
+            assertEquals(channelCount, format.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
+            // Nothing written before the muxer was started is lost
+            assertEquals(DURATION_US, format.getLong(MediaFormat.KEY_DURATION), 100000);
+        } finally {
+            extractor.release();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package zeroonezero.android.audio_mixer;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+/**
+ * Collects {@link MediaCodec.Callback} events of a codec running in asynchronous mode,
+ * so that the codec can be driven from our own thread like in synchronous mode
+ * but without polling with zero timeout.
+ *
+ * {@link #pollInputBuffer()} and {@link #pollOutputBuffer(MediaCodec.BufferInfo)} return the same values as
+ * 'dequeueInputBuffer()' and 'dequeueOutputBuffer()' do, and {@link #awaitEvent()} blocks till the codec
+ * has something for us. Callbacks are delivered on a dedicated handler thread.
+ */
+@TargetApi(23)
+final class AsyncCodecCallback extends MediaCodec.Callback {
+
+    // We wake up anyway after this to check whether processing has been stopped
+    private static final long MAX_WAIT_MS = 10;
+
+    private final HandlerThread callbackThread;
+    private final Handler callbackHandler;
+
+    private final IntQueue inputBuffers = new IntQueue();
+
+    /*
+    * Output events in order. Index is MediaCodec.INFO_OUTPUT_FORMAT_CHANGED for format change.
+    */
+    private final IntQueue outputBuffers = new IntQueue();
+    private final IntQueue outputOffsets = new IntQueue();
+    private final IntQueue outputSizes = new IntQueue();
+    private final IntQueue outputFlags = new IntQueue();
+    private final LongQueue outputPresentationTimes = new LongQueue();
+
+    private MediaCodec.CodecException error;
+
+    /*
+    * Set while a flush hasn't reached the callback thread. Events delivered meanwhile were posted
+    * before the flush, so they are dropped.
+    */
+    private boolean flushing;
+
+    private final Runnable flushBarrier = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (AsyncCodecCallback.this) {
+                clear();
+                flushing = false;
+                AsyncCodecCallback.this.notifyAll();
+            }
+        }
+    };
+
+    AsyncCodecCallback(String name) {
+        callbackThread = new HandlerThread(name);
+        callbackThread.start();
+        callbackHandler = new Handler(callbackThread.getLooper());
+    }
+
+    /**
+     * Sets this as the callback of the codec. It must be called before configuring the codec.
+     */
+    void attach(MediaCodec codec) {
+        codec.setCallback(this, callbackHandler);
+    }
+
+    synchronized int pollInputBuffer() {
+        checkError();
+        return inputBuffers.isEmpty() ? MediaCodec.INFO_TRY_AGAIN_LATER : inputBuffers.poll();
+    }
+
+    synchronized int pollOutputBuffer(MediaCodec.BufferInfo info) {
+        checkError();
+        if (outputBuffers.isEmpty()) return MediaCodec.INFO_TRY_AGAIN_LATER;
+
+        info.offset = outputOffsets.poll();
+        info.size = outputSizes.poll();
+        info.flags = outputFlags.poll();
+        info.presentationTimeUs = outputPresentationTimes.poll();
+        return outputBuffers.poll();
+    }
+
+    /**
+     * Blocks till there is an input buffer or an output event.
+     */
+    synchronized void awaitEvent() {
+        if (!inputBuffers.isEmpty() || !outputBuffers.isEmpty() || error != null) return;
+        try {
+            wait(MAX_WAIT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Flushes the codec and discards all its events, as the indices are no longer valid.
+     * Events already posted to the callback thread can still arrive after the flush, so the events are
+     * discarded on that thread behind them. When this returns, the codec can be started again.
+     */
+    void flush(MediaCodec codec) {
+        synchronized (this) {
+            flushing = true;
+        }
+        codec.flush();
+        if (!callbackHandler.post(flushBarrier)) {
+            // Callback thread has quit, nothing can arrive anymore
+            flushBarrier.run();
+            return;
+        }
+        boolean interrupted = false;
+        synchronized (this) {
+            // Quitting the thread drops the barrier, it is then cleared here
+            while (flushing) {
+                if (!callbackThread.isAlive()) {
+                    clear();
+                    flushing = false;
+                    break;
+                }
+                try {
+                    wait(MAX_WAIT_MS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void clear() {
+        inputBuffers.clear();
+        outputBuffers.clear();
+        outputOffsets.clear();
+        outputSizes.clear();
+        outputFlags.clear();
+        outputPresentationTimes.clear();
+    }
+
+    void release() {
+        callbackThread.quit();
+    }
+
+    private void checkError() {
+        if (error != null) throw error;
+    }
+
+    @Override
+    public synchronized void onInputBufferAvailable(MediaCodec codec, int index) {
+        if (flushing) return;
+        inputBuffers.add(index);
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+        if (flushing) return;
+        outputBuffers.add(index);
+        outputOffsets.add(info.offset);
+        outputSizes.add(info.size);
+        outputFlags.add(info.flags);
+        outputPresentationTimes.add(info.presentationTimeUs);
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+        if (flushing) return;
+        outputBuffers.add(MediaCodec.INFO_OUTPUT_FORMAT_CHANGED);
+        outputOffsets.add(0);
+        outputSizes.add(0);
+        outputFlags.add(0);
+        outputPresentationTimes.add(0);
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void onError(MediaCodec codec, MediaCodec.CodecException e) {
+        error = e;
+        notifyAll();
+    }
+
+    /*
+    * Growable queues of primitives, so events don't create any garbage.
+    */
+    private static final class IntQueue {
+        private int[] values = new int[16];
+        private int head;
+        private int size;
+
+        boolean isEmpty() { return size == 0; }
+
+        void add(int value) {
+            if (size == values.length) {
+                int[] newValues = new int[values.length * 2];
+                for (int i = 0; i < size; i++) newValues[i] = values[(head + i) % values.length];
+                values = newValues;
+                head = 0;
+            }
+            values[(head + size) % values.length] = value;
+            size++;
+        }
+
+        int poll() {
+            int value = values[head];
+            head = (head + 1) % values.length;
+            size--;
+            return value;
+        }
+
+        void clear() {
+            head = 0;
+            size = 0;
+        }
+    }
+
+    private static final class LongQueue {
+        private long[] values = new long[16];
+        private int head;
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                long[] newValues = new long[values.length * 2];
+                for (int i = 0; i < size; i++) newValues[i] = values[(head + i) % values.length];
+                values = newValues;
+                head = 0;
+            }
+            values[(head + size) % values.length] = value;
+            size++;
+        }
+
+        long poll() {
+            long value = values[head];
+            head = (head + 1) % values.length;
+            size--;
+            return value;
+        }
+
+        void clear() {
+            head = 0;
+            size = 0;
+        }
+    }
+}
@@ -10,6 +10,9 @@ import zeroonezero.android.audio_mixer.remix.AudioRemixer;
 import zeroonezero.android.audio_mixer.remix.DefaultAudioRemixer;
 import zeroonezero.android.audio_mixer.resample.AudioResampler;
 import zeroonezero.android.audio_mixer.resample.DefaultAudioResampler;
+import zeroonezero.android.audio_mixer.resample.PolyphaseAudioResampler;
+import zeroonezero.android.audio_mixer.resample.ResamplingQuality;
+import zeroonezero.android.audio_mixer.resample.StreamingAudioResampler;
 
 public class AudioBufferConverter {
     private static final String TAG = AudioBufferConverter.class.getSimpleName();
@@ -18,10 +21,50 @@ public class AudioBufferConverter {
     private final AudioRemixer mRemixer;
     private final AudioResampler mResampler;
 
+    /*
+    * If we use the default remixer and resampler, we can do both in one pass with this.
+    * It is null if polyphase resampling or custom remixer or resampler is used.
+    */
+    private final FusedAudioConverter mFusedConverter;
+
+    /*
+    * These buffers are reused for each conversion, so converting doesn't allocate anything in steady state.
+    * A buffer is replaced only if a larger one is required.
+    * That is why the buffer returned by 'convert()' is valid only till the next call of it.
+    */
+    private ShortBuffer mIntermediateBuffer;
+    private ShortBuffer mOutputBuffer;
+
+    // Buffer allocations are reported to it if it is set
+    private MixerStats mMixerStats;
+
     public AudioBufferConverter() {
+        this(ResamplingQuality.FAST);
+    }
+
+    public AudioBufferConverter(@NonNull ResamplingQuality quality) {
         // Create remixer and resampler.
         mRemixer = new DefaultAudioRemixer();
-        mResampler = new DefaultAudioResampler();
+        if(quality == ResamplingQuality.FAST){
+            mResampler = new DefaultAudioResampler();
+            mFusedConverter = new FusedAudioConverter();
+        }else{
+            mResampler = new PolyphaseAudioResampler(quality);
+            mFusedConverter = null;
+        }
+    }
+
+    /*
+    * Except for the fused one, remixing and resampling are done one after another.
+    */
+    public AudioBufferConverter(@NonNull AudioRemixer remixer, @NonNull AudioResampler resampler) {
+        mRemixer = remixer;
+        mResampler = resampler;
+        mFusedConverter = null;
+    }
+
+    public void setMixerStats(MixerStats mixerStats) {
+        mMixerStats = mixerStats;
     }
 
     public int calculateRequiredOutputSize(int inputSize, int inputSampleRate, int inputChannelCount,
@@ -47,24 +90,109 @@ public class AudioBufferConverter {
 
         final int inputSize = inputBuffer.remaining();
 
+        if(mFusedConverter != null){
+            // Do the remixing and resampling at once.
+            int outputSize = mFusedConverter.getOutputSize(inputSize, inputSampleRate, inputChannelCount,
+                    outputSampleRate, outputChannelCount);
+            mOutputBuffer = obtainBuffer(mOutputBuffer, outputSize);
+            ShortBuffer outputBuffer = mOutputBuffer;
+            mFusedConverter.convert(inputBuffer, inputSampleRate, inputChannelCount,
+                    outputBuffer, outputSampleRate, outputChannelCount);
+            outputBuffer.flip();
+            return outputBuffer;
+        }
+
+        // Resampling costs per channel, so we resample when there are fewer channels.
+        if(inputChannelCount < outputChannelCount){
+            return resampleThenRemix(inputBuffer, inputSampleRate, inputChannelCount, outputSampleRate, outputChannelCount);
+        }
+
         // Do the remixing.
         int remixSize = mRemixer.getRemixedSize(inputSize, inputChannelCount, outputChannelCount);
-        ShortBuffer remixedBuffer = createBuffer(remixSize);
+        mIntermediateBuffer = obtainBuffer(mIntermediateBuffer, remixSize);
+        ShortBuffer remixedBuffer = mIntermediateBuffer;
         mRemixer.remix(inputBuffer, inputChannelCount, remixedBuffer, outputChannelCount);
-        remixedBuffer.rewind();
+        remixedBuffer.flip();
+
+        // Do the resampling.
+        int resampleSize = getResampledSize(remixedBuffer.remaining(), inputSampleRate, outputSampleRate, outputChannelCount);
+        mOutputBuffer = obtainBuffer(mOutputBuffer, resampleSize);
+        ShortBuffer outputBuffer = mOutputBuffer;
+        mResampler.resample(remixedBuffer, inputSampleRate, outputBuffer, outputSampleRate, outputChannelCount);
+        outputBuffer.flip();
+        return outputBuffer;
+    }
 
+    private ShortBuffer resampleThenRemix(@NonNull ShortBuffer inputBuffer, int inputSampleRate, int inputChannelCount,
+                                          int outputSampleRate, int outputChannelCount) {
         // Do the resampling.
-        int resampleSize = (int) Math.ceil((double) remixSize * outputSampleRate / (double)inputSampleRate);
+        int resampleSize = getResampledSize(inputBuffer.remaining(), inputSampleRate, outputSampleRate, inputChannelCount);
+        mIntermediateBuffer = obtainBuffer(mIntermediateBuffer, resampleSize);
+        ShortBuffer resampledBuffer = mIntermediateBuffer;
+        mResampler.resample(inputBuffer, inputSampleRate, resampledBuffer, outputSampleRate, inputChannelCount);
+        resampledBuffer.flip();
+
+        return remix(resampledBuffer, inputChannelCount, outputChannelCount);
+    }
+
+    private ShortBuffer remix(@NonNull ShortBuffer inputBuffer, int inputChannelCount, int outputChannelCount) {
+        int remixSize = mRemixer.getRemixedSize(inputBuffer.remaining(), inputChannelCount, outputChannelCount);
+        mOutputBuffer = obtainBuffer(mOutputBuffer, remixSize);
+        ShortBuffer outputBuffer = mOutputBuffer;
+        mRemixer.remix(inputBuffer, inputChannelCount, outputBuffer, outputChannelCount);
+        outputBuffer.flip();
+        return outputBuffer;
+    }
+
+    private int getResampledSize(int inputSize, int inputSampleRate, int outputSampleRate, int channels){
+        // Streaming resamplers know their exact output size
+        if(mResampler instanceof StreamingAudioResampler){
+            return ((StreamingAudioResampler) mResampler).getResampledSize(inputSize, inputSampleRate, outputSampleRate, channels);
+        }
+
+        int resampleSize = (int) Math.ceil((double) inputSize * outputSampleRate / (double)inputSampleRate);
         // We add some extra values to avoid BufferOverflowException.
         // Problem may occur for calculation.
         // To be safe we add 10 but 1 is enough may be. Not sure.
-        resampleSize += 10;
+        return resampleSize + 10;
+    }
 
-        ShortBuffer outputBuffer = createBuffer(resampleSize);
-        mResampler.resample(remixedBuffer, inputSampleRate, outputBuffer, outputSampleRate, inputChannelCount);
-        outputBuffer.limit(outputBuffer.position());
-        outputBuffer.rewind();
-        return outputBuffer;
+    /**
+     * Returns the remaining output of the current stream.
+     * It must be called when there is no more input, with the same arguments which were used for 'convert()'.
+     * Like 'convert()', the returned buffer is valid only till the next call.
+     */
+    public ShortBuffer flush(int inputSampleRate, int inputChannelCount,
+                             int outputSampleRate, int outputChannelCount) {
+        if(!(mResampler instanceof StreamingAudioResampler) || mFusedConverter != null){
+            // Nothing is held back
+            reset();
+            mOutputBuffer = obtainBuffer(mOutputBuffer, 0);
+            return mOutputBuffer;
+        }
+
+        StreamingAudioResampler resampler = (StreamingAudioResampler) mResampler;
+        if(inputChannelCount < outputChannelCount){
+            mIntermediateBuffer = obtainBuffer(mIntermediateBuffer, resampler.getFlushSize());
+            ShortBuffer resampledBuffer = mIntermediateBuffer;
+            resampler.flush(resampledBuffer);
+            resampledBuffer.flip();
+            return remix(resampledBuffer, inputChannelCount, outputChannelCount);
+        }else{
+            mOutputBuffer = obtainBuffer(mOutputBuffer, resampler.getFlushSize());
+            ShortBuffer outputBuffer = mOutputBuffer;
+            resampler.flush(outputBuffer);
+            outputBuffer.flip();
+            return outputBuffer;
+        }
+    }
+
+    /**
+     * Discards the state of the current stream, e.g. when the input jumps to another position.
+     */
+    public void reset() {
+        if(mFusedConverter != null) mFusedConverter.reset();
+        if(mResampler instanceof StreamingAudioResampler) ((StreamingAudioResampler) mResampler).reset();
     }
 
     private void checkChannels(int inputChannelCount, int outputChannelCount){
@@ -77,7 +205,17 @@ public class AudioBufferConverter {
         }
     }
 
+    private ShortBuffer obtainBuffer(ShortBuffer buffer, int capacity) {
+        if(buffer == null || buffer.capacity() < capacity){
+            return createBuffer(capacity);
+        }
+        buffer.clear();
+        buffer.limit(capacity);
+        return buffer;
+    }
+
     private ShortBuffer createBuffer(int capacity) {
+        if(mMixerStats != null) mMixerStats.addAllocation(capacity * BYTES_PER_SHORT);
         ShortBuffer buffer = ByteBuffer.allocateDirect(capacity * BYTES_PER_SHORT)
                 .order(ByteOrder.nativeOrder())
                 .asShortBuffer();
@@ -15,7 +15,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Map;
 
-public class AudioDecoder {
+public class AudioDecoder implements PcmDecoder {
     private static final int TIMEOUT_USEC = 0000;
 
     private final MediaExtractor extractor;
@@ -29,6 +29,28 @@ public class AudioDecoder {
     private boolean allInputExtracted;
     private boolean decodingDone;
 
+    /*
+    * In asynchronous mode, codec events come through 'codecCallback'
+    * and we wait for them instead of polling the codec.
+    */
+    private boolean asyncModeEnabled;
+    private AsyncCodecCallback codecCallback;
+    private boolean started;
+
+    /*
+    * If it is set, codec is taken from it on starting and given back to it on stopping.
+    */
+    private DecoderPool decoderPool;
+
+    // Codec buffers are counted in it if it is set
+    private MixerStats mixerStats;
+
+    /*
+    * These are filled again by each 'decode()' call, so decoding doesn't allocate anything in steady state.
+    */
+    private final DecodedBufferData data = new DecodedBufferData();
+    private final MediaCodec.BufferInfo outputBufferInfo = new MediaCodec.BufferInfo();
+
     public AudioDecoder(String sourcePath) throws IOException {
         extractor = new MediaExtractor();
         extractor.setDataSource(sourcePath);
@@ -76,9 +98,9 @@ public class AudioDecoder {
     private void init() throws IOException{
         selectTrack();
 
-        MediaFormat inputFormat = extractor.getTrackFormat(trackIndex);
-        decoder = MediaCodec.createDecoderByType(inputFormat.getString(MediaFormat.KEY_MIME));
-        decoder.configure(inputFormat, null, null, 0);
+        // Decoder is created in 'start()', so a codec isn't held by inputs which are never decoded,
+        // e.g. inputs served from a PCM cache. It must be configured there anyway,
+        // as the asynchronous mode must be set before configuring.
 
         startTimeUs = 0;
         endTimeUs = getDurationUs();
@@ -105,42 +127,55 @@ public class AudioDecoder {
         return null;
     }
 
+    @Override
     public long getDurationUs(){
         try{ return getMediaFormat().getLong(MediaFormat.KEY_DURATION); }catch (Exception e){ }
         return -1;
     }
 
+    @Override
     public int getSampleRate(){
         try{ return getMediaFormat().getInteger(MediaFormat.KEY_SAMPLE_RATE); }catch (Exception e){ }
         return -1;
     }
 
+    @Override
     public int getBitrateRate(){
         try{ return getMediaFormat().getInteger(MediaFormat.KEY_BIT_RATE); }catch (Exception e){ }
         return -1;
     }
 
+    @Override
     public int getChannelCount() {
         try{ return getMediaFormat().getInteger(MediaFormat.KEY_CHANNEL_COUNT); }catch (Exception e){ }
         return -1;
     }
 
+    @Override
     public long getStartTimeUs() {
         return startTimeUs;
     }
 
+    @Override
     public long getEndTimeUs() {
         return endTimeUs;
     }
 
+    @Override
     public boolean isLoopingEnabled() {
         return loopingEnabled;
     }
 
+    @Override
     public boolean isDecodingDone() {
         return decodingDone;
     }
 
+    public boolean isAsyncModeEnabled() {
+        return asyncModeEnabled;
+    }
+
+    @Override
     public void setStartTimeUs(long startTimeUs) {
         this.startTimeUs = startTimeUs;
 
@@ -149,6 +184,7 @@ public class AudioDecoder {
         else if(startTimeUs > durationUs) this.startTimeUs = durationUs;
     }
 
+    @Override
     public void setEndTimeUs(long endTimeUs) {
         this.endTimeUs = endTimeUs;
 
@@ -157,31 +193,84 @@ public class AudioDecoder {
         else if(endTimeUs > durationUs) this.endTimeUs = durationUs;
     }
 
+    @Override
     public void setLoopingEnabled(boolean loopingEnabled) {
         this.loopingEnabled = loopingEnabled;
     }
 
+    /*
+    * Asynchronous mode needs API 23, it is ignored in lower versions.
+    * It must be set before starting.
+    */
+    public void setAsyncModeEnabled(boolean asyncModeEnabled) {
+        this.asyncModeEnabled = asyncModeEnabled;
+    }
+
+    public DecoderPool getDecoderPool() {
+        return decoderPool;
+    }
+
+    /*
+    * It must be set before starting.
+    */
+    public void setDecoderPool(DecoderPool decoderPool) {
+        this.decoderPool = decoderPool;
+    }
+
+    public void setMixerStats(MixerStats mixerStats) {
+        this.mixerStats = mixerStats;
+    }
+
+    private boolean isAsync(){
+        return codecCallback != null;
+    }
+
+    @Override
     public void start(){
         if(startTimeUs > endTimeUs){
             throw new RuntimeException("StartTimeUs("+startTimeUs+") must be less than or equal to EndTimeUs("+endTimeUs+")");
         }
 
+        if(decoder == null){
+            try {
+                decoder = decoderPool != null ? decoderPool.acquire(getMediaFormat())
+                        : MediaCodec.createDecoderByType(getMediaFormat().getString(MediaFormat.KEY_MIME));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to create decoder", e);
+            }
+        }
+
+        if(asyncModeEnabled && Build.VERSION.SDK_INT >= 23){
+            codecCallback = new AsyncCodecCallback(AudioDecoder.class.getSimpleName() + "-callback");
+            codecCallback.attach(decoder);
+        }
+        decoder.configure(getMediaFormat(), null, null, 0);
+
         extractor.seekTo(startTimeUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
         decoder.start();
+        started = true;
 
         allInputExtracted = false;
         decodingDone = false;
     }
 
+    @Override
     public DecodedBufferData decode(){
 
-        DecodedBufferData data = new DecodedBufferData();
+        data.byteBuffer = null;
+        data.index = -1;
+        data.size = 0;
+        data.presentationTimeUs = 0;
+        data.flags = 0;
+        data.offset = 0;
 
         boolean currentOutputDone = false;
         while(!currentOutputDone && !decodingDone){
 
+            int inBufferId = -1;
             if (!allInputExtracted) {
-                int inBufferId = decoder.dequeueInputBuffer(TIMEOUT_USEC);
+                inBufferId = isAsync() ? codecCallback.pollInputBuffer() : decoder.dequeueInputBuffer(TIMEOUT_USEC);
+                countPoll(inBufferId);
                 if (inBufferId >= 0) {
                     ByteBuffer buffer;
                     if (Build.VERSION.SDK_INT >= 21) {
@@ -196,7 +285,14 @@ public class AudioDecoder {
                         extractor.advance();
                     } else {
                         if(loopingEnabled){
-                            decoder.flush();
+                            if(isAsync()){
+                                // Flushed buffers are no longer ours and the codec must be resumed,
+                                // but only after events of the old buffers have been discarded
+                                codecCallback.flush(decoder);
+                                decoder.start();
+                            }else{
+                                decoder.flush();
+                            }
                             extractor.seekTo(startTimeUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
                         }else{
                             decoder.queueInputBuffer(inBufferId, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
@@ -207,8 +303,14 @@ public class AudioDecoder {
             }
 
 
-            MediaCodec.BufferInfo outputBufferInfo = new MediaCodec.BufferInfo();
-            int outputBufferIndex = decoder.dequeueOutputBuffer(outputBufferInfo, TIMEOUT_USEC);
+            int outputBufferIndex = isAsync() ? codecCallback.pollOutputBuffer(outputBufferInfo)
+                    : decoder.dequeueOutputBuffer(outputBufferInfo, TIMEOUT_USEC);
+            countPoll(outputBufferIndex);
+
+            // Nothing to do till the codec gives us a buffer
+            if(isAsync() && inBufferId < 0 && outputBufferIndex == MediaCodec.INFO_TRY_AGAIN_LATER){
+                codecCallback.awaitEvent();
+            }
 
             if (outputBufferIndex >= 0) {
                 if (Build.VERSION.SDK_INT >= 21) {
@@ -254,32 +356,45 @@ public class AudioDecoder {
         return data;
     }
 
-    /**
-    * @param index last decoded output buffer's index
-     *
-     * This method must be called each time after decoding and and using the ByteBuffer sample
-     * */
+    private void countPoll(int bufferIndex){
+        if(mixerStats == null) return;
+        if(bufferIndex >= 0) mixerStats.addCodecBufferDequeued();
+        else if(bufferIndex == MediaCodec.INFO_TRY_AGAIN_LATER) mixerStats.addEmptyPoll();
+    }
+
+    @Override
     public void releaseOutputBuffer(int index){
         decoder.releaseOutputBuffer(index, false);
     }
 
+    @Override
     public void stop(){
-        decoder.stop();
+        final boolean wasStarted = started;
+        if(started){
+            decoder.stop();
+            started = false;
+        }
+        // Codec is not held after decoding, it is created again if decoder is started again.
+        // Only a codec which was stopped cleanly is given back to the pool.
+        if(decoder != null){
+            if(decoderPool != null && wasStarted){
+                if(codecCallback != null) decoder.setCallback(null);
+                decoderPool.recycle(getMediaFormat(), decoder);
+            }else{
+                decoder.release();
+            }
+            decoder = null;
+        }
+        if(codecCallback != null){
+            codecCallback.release();
+            codecCallback = null;
+        }
         decodingDone = true;
     }
 
+    @Override
     public void release(){
         stop();
-        decoder.release();
         extractor.release();
     }
-
-    public static class DecodedBufferData{
-        public ByteBuffer byteBuffer = null;
-        public int index = -1;
-        public int size = 0;
-        public long presentationTimeUs = 0;
-        public int flags = 0;
-        public int offset = 0;
-    }
 }
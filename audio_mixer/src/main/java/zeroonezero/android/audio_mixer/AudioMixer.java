@@ -1,20 +1,19 @@
 package zeroonezero.android.audio_mixer;
 
 import android.annotation.TargetApi;
-import android.media.MediaCodec;
-import android.media.MediaCodecInfo;
-import android.media.MediaFormat;
 import android.media.MediaMuxer;
-import android.os.Build;
 
 import java.io.FileDescriptor;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.nio.ShortBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import zeroonezero.android.audio_mixer.input.AudioInput;
+import zeroonezero.android.audio_mixer.input.GeneralAudioInput;
+import zeroonezero.android.audio_mixer.input.MappedAudioInput;
+import zeroonezero.android.audio_mixer.resample.ResamplingQuality;
 
 public class AudioMixer {
     private static final String TAG = AudioMixer.class.getSimpleName();
@@ -25,13 +24,39 @@ public class AudioMixer {
     private final int DEFAULT_BIT_RATE = 128000;
     private final int DEFAULT_CHANNEL_COUNT = 2;
 
-    private static final int TIMEOUT_USEC = 0000;
-    private static final int BYTES_PER_SHORT = 2;
+    private static final int MIX_BLOCK_SIZE = 1024; // in shorts
+    private static final int MIX_BUFFER_SIZE = 4 * MIX_BLOCK_SIZE; // in shorts
 
-    private MediaCodec encoder;
-    private MediaMuxer muxer;
-    private final boolean isMuxerExternal;
-    private int muxerTrackIndex = -1;
+    /*
+    * Inputs are activated this much ahead of their first audible value,
+    * so their decoders have started by the time they are mixed.
+    */
+    private static final long ACTIVATION_LEAD_US = 500000;
+
+    public static final int DEFAULT_PREVIEW_BLOCK_SIZE = 2048; // in shorts
+    public static final long DEFAULT_READ_AHEAD_US = 100000;
+
+    /*
+    * Mixed values are written into 'output' buffer by buffer.
+    */
+    private AudioOutput output;
+    private ShortBuffer mixBuffer;
+    private long mixedShorts;
+
+    /*
+    * Without an output, mixed values are pulled with 'read()', e.g. to play the mix while it is being edited.
+    * They are mixed 'previewBlockSize' values at a time and volumes are taken for each block.
+    * If 'readAheadUs' is positive, 'previewWorker' mixes up to that much ahead of reading into 'previewRing',
+    * otherwise 'read()' mixes in the caller's thread. So a change is heard after at most a block and the read-ahead.
+    * A block is mixed while holding 'previewLock', and 'stop()' takes it to end mixing,
+    * so inputs are never released while a block of them is being mixed in another thread.
+    */
+    private final boolean pullMode;
+    private int previewBlockSize = DEFAULT_PREVIEW_BLOCK_SIZE;
+    private long readAheadUs = DEFAULT_READ_AHEAD_US;
+    private PcmRingBuffer previewRing;
+    private Thread previewWorker;
+    private final Object previewLock = new Object();
 
     private List<AudioInput> audioInputList = new ArrayList<>();
 
@@ -45,6 +70,56 @@ public class AudioMixer {
 
     private MixingType mixingType = MixingType.PARALLEL;
 
+    /*
+    * If it is set, it is applied to all general inputs in 'start()' method.
+    * Otherwise each input uses its own resampling quality.
+    */
+    private ResamplingQuality resamplingQuality;
+
+    /*
+    * If it is enabled, each general input decodes in its own thread ahead of mixing.
+    */
+    private boolean backgroundDecodingEnabled;
+
+    /*
+    * If it is enabled and background decoding is not, general inputs decode their first values in a separate thread
+    * from their activation on, so the next input in sequential mixing is primed while the current one is mixed.
+    * It is off by default, as it takes a thread per input while the input is being primed.
+    */
+    private boolean prerollEnabled;
+
+    /*
+    * If it is enabled, parallel mixing keeps the level of each input and a lookahead limiter
+    * keeps the sum from clipping. Otherwise each input is divided by the number of inputs.
+    */
+    private boolean limiterEnabled;
+
+    /*
+    * If it is set, general inputs cache their converted values in it and reuse them from there.
+    */
+    private PcmCache pcmCache;
+
+    /*
+    * If it is set, it is applied to all general inputs in 'start()' method as the maximum size of a loop kept in memory.
+    */
+    private long loopCacheMaxSize = -1;
+
+    /*
+    * Decoders of finished general inputs are given back to 'decoderPool' and reused by the next inputs.
+    * If no pool is set, the mixer uses its own one while pooling is enabled and releases it at the end.
+    * A pool which is set from outside may be shared by several mixers, it is not cleared by us.
+    */
+    private DecoderPool decoderPool;
+    private boolean decoderPoolingEnabled = true;
+    private boolean ownsDecoderPool;
+
+    /*
+    * If it is enabled, encoder and decoders run in asynchronous mode and we wait for their buffers
+    * instead of polling them. It needs API 23, so lower versions always run in synchronous mode.
+    * It is applied to the output if it is a MuxerAudioOutput.
+    */
+    private boolean asyncCodecEnabled = true;
+
     /*
     * Looping means if an audio input reaches its end-time,
     * it will again go to its start-time.
@@ -65,12 +140,32 @@ public class AudioMixer {
     private AudioInput baseInputForParallelType;
     private int currentInputIndexForSequentialType;
 
+    /*
+    * Parallel mixing is done by 'parallelMixKernel' block by block.
+    * 'mixBlock' is the scratch block for sequential mixing and 'silenceBlock' is always zero,
+    * it is put in place of silence which an input skips.
+    */
+    private ParallelMixKernel parallelMixKernel;
+    private short[] mixBlock;
+    private short[] silenceBlock;
+
+    /*
+    * Inputs are activated by 'timelineScheduler' when they are about to be heard
+    * and deactivated when they are done, so only overlapping inputs hold codecs at the same time.
+    */
+    private TimelineScheduler timelineScheduler;
+
+    /*
+    * Counters of the current or last job. They are reset in 'start()' and remain readable after processing.
+    */
+    private final MixerStats stats = new MixerStats();
+
     /*
     * These indicates different states.
     */
     private boolean started;
     private boolean processing;
-    private boolean mixingDone;
+    private volatile boolean mixingDone;
 
     /*
     * Indicates progress of mixing. Values ranges from 0.0 to 1.0
@@ -85,32 +180,14 @@ public class AudioMixer {
     private Thread processingThread;
 
     public AudioMixer(String outputFilePath) throws IOException{
-        this(outputFilePath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
-    }
-
-    /*
-    * private for now
-    */
-    private AudioMixer(String outputFilePath, int mediaMuxerOutputFormat) throws IOException{
-        muxer = new MediaMuxer(outputFilePath, mediaMuxerOutputFormat);
-        isMuxerExternal = false;
+        this(new MuxerAudioOutput(outputFilePath));
     }
 
     @TargetApi(26)
     public AudioMixer(FileDescriptor fd) throws IOException{
-        this(fd, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
-    }
-
-    /*
-     * private for now
-     */
-    @TargetApi(26)
-    private AudioMixer(FileDescriptor fd, int mediaMuxerOutputFormat) throws IOException{
-        muxer = new MediaMuxer(fd, mediaMuxerOutputFormat);
-        isMuxerExternal = false;
+        this(new MuxerAudioOutput(fd));
     }
 
-
     /*
     * Also external muxer can be used for muxing.
     * As for example, if we want to add audio with video,
@@ -119,21 +196,23 @@ public class AudioMixer {
     * In this case we must start processing after the muxer has started.
     * */
     public AudioMixer(MediaMuxer muxer){
-        this.muxer = muxer;
-        isMuxerExternal = true;
+        this(new MuxerAudioOutput(muxer));
     }
 
-    private MediaFormat createOutputFormat(int sampleRate, int bitRate, int channelCount){
-        MediaFormat format = new MediaFormat();
-        format.setString(MediaFormat.KEY_MIME, MediaFormat.MIMETYPE_AUDIO_AAC);
-        format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
-        format.setInteger(MediaFormat.KEY_SAMPLE_RATE, sampleRate);
-        format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
-        format.setInteger(MediaFormat.KEY_CHANNEL_COUNT, channelCount);
-        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE,1024 * 256); // Needs to be large enough to avoid BufferOverflowException
-        return format;
+    /*
+    * Mixed audio is written into the given output, e.g. a WavAudioOutput to skip encoding.
+    */
+    public AudioMixer(AudioOutput output){
+        this.output = output;
+        pullMode = output == null;
     }
 
+    /*
+    * Mixed audio is pulled with 'read()' instead of being written into an output.
+    */
+    public AudioMixer(){
+        this((AudioOutput) null);
+    }
 
     public void start() throws IOException {
         if(started || processing || mixingDone) throw new IllegalStateException("Wrong state. AudioMixer can't start.");
@@ -161,6 +240,8 @@ public class AudioMixer {
             }
             baseInputForParallelType.setLoopingEnabled(false);
 
+            parallelMixKernel = new ParallelMixKernel(MIX_BLOCK_SIZE);
+
         }else if (mixingType == MixingType.SEQUENTIAL){
 
             // We start from the first input, encode it, move to next by incrementing 'currentInputIndexForSequentialType'
@@ -204,26 +285,68 @@ public class AudioMixer {
         if(bitRate < 1) bitRate = DEFAULT_BIT_RATE;
         if(channelCount < 1) channelCount = DEFAULT_CHANNEL_COUNT;
 
+        stats.reset(audioInputList.size(), sampleRate, channelCount);
+        if(parallelMixKernel != null){
+            parallelMixKernel.setMixerStats(stats);
+            parallelMixKernel.setLimiter(limiterEnabled ? new LookaheadLimiter(sampleRate, channelCount) : null);
+        }
+
+        if(decoderPool == null && decoderPoolingEnabled){
+            decoderPool = new DecoderPool();
+            ownsDecoderPool = true;
+        }
+
         for(AudioInput input: audioInputList){
+            if(input instanceof GeneralAudioInput){
+                GeneralAudioInput generalInput = (GeneralAudioInput) input;
+                if(resamplingQuality != null) generalInput.setResamplingQuality(resamplingQuality);
+                if(backgroundDecodingEnabled) generalInput.setBackgroundDecodingEnabled(true);
+                if(prerollEnabled) generalInput.setPrerollUs(ACTIVATION_LEAD_US);
+                if(pcmCache != null) generalInput.setPcmCache(pcmCache);
+                if(loopCacheMaxSize >= 0) generalInput.setLoopCacheMaxSize(loopCacheMaxSize);
+                generalInput.setAsyncCodecEnabled(asyncCodecEnabled);
+                if(decoderPool != null) generalInput.setDecoderPool(decoderPool);
+                generalInput.setMixerStats(stats);
+            }else if(input instanceof MappedAudioInput){
+                if(resamplingQuality != null) ((MappedAudioInput) input).setResamplingQuality(resamplingQuality);
+            }
             input.start(sampleRate, channelCount);
         }
 
-        MediaFormat outputFormat = createOutputFormat(sampleRate, bitRate, channelCount);
-        encoder = MediaCodec.createEncoderByType(outputFormat.getString(MediaFormat.KEY_MIME));
-        encoder.configure(outputFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
-        encoder.start();
+        timelineScheduler = new TimelineScheduler(AudioConversions.usToShorts(ACTIVATION_LEAD_US, sampleRate, channelCount));
+        long inputPosition = 0;
+        for(AudioInput input: audioInputList){
+            timelineScheduler.add(input, inputPosition + input.getSilentShorts());
+            // In sequential mixing an input starts after all inputs before it
+            if(mixingType == MixingType.SEQUENTIAL){
+                inputPosition += AudioConversions.usToShorts(input.getDurationUs(), sampleRate, channelCount);
+            }
+        }
 
-        // Here we have to add the audio track to the muxer.
-        // Because we must add all tracks to the muxer before starting it
-        // and as the starting of muxer will be handled externally we have to make sure that
-        // the audio track is added before starting of the muxer.
-        //
-        // To add the track we start encoding here. Actually it will not encode anything here.
-        // It will just add the audio track and find the track index;
-        synchronized (muxer){
-            encode(true);
-            // if muxer is not external, we can start it
-            if(!isMuxerExternal) muxer.start();
+        mixBlock = new short[MIX_BLOCK_SIZE];
+        silenceBlock = new short[MIX_BLOCK_SIZE];
+        mixBuffer = ShortBuffer.allocate(MIX_BUFFER_SIZE);
+        mixedShorts = 0;
+
+        if(pullMode){
+            startPreview();
+            started = true;
+            return;
+        }
+
+        if(output instanceof MuxerAudioOutput){
+            ((MuxerAudioOutput) output).setAsyncCodecEnabled(asyncCodecEnabled);
+            ((MuxerAudioOutput) output).setMixerStats(stats);
+        }else if(output instanceof FanOutAudioOutput){
+            ((FanOutAudioOutput) output).setAsyncCodecEnabled(asyncCodecEnabled);
+            ((FanOutAudioOutput) output).setMixerStats(stats);
+        }
+        output.start(sampleRate, channelCount, bitRate);
+
+        // Some outputs need values before processing starts.
+        // As for example, an encoder must add its track to an external muxer before the muxer is started.
+        while(!output.isReady() && isInputAvailable()){
+            mixAndWrite();
         }
 
         started = true;
@@ -234,7 +357,7 @@ public class AudioMixer {
         processing = true;
         processingThread = new Thread(){
             public void run() {
-                encode(false);
+                process();
                 processing = false;
                 if(processingListener != null){
                     processingListener.onEnd();
@@ -247,70 +370,190 @@ public class AudioMixer {
     public void processSync(){
         checkProcessState();
         processing = true;
-        encode(false);
+        process();
         processing = false;
         if(processingListener != null){
             processingListener.onEnd();
         }
     }
 
+    /**
+     * Reads mixed values of a mixer without an output, blocking till the buffer is full or the mix has ended.
+     * It must be called after {@link #start()} from one thread, e.g. an AudioTrack's writing thread.
+     * The listener is called from the thread which mixes: the preview worker if there is a read-ahead,
+     * otherwise the reading thread. {@link #stop()} and {@link #release()} may be called from any thread.
+     *
+     * @return number of values read, or -1 if the mix has ended
+     */
+    public int read(ShortBuffer buffer){
+        if(!started || !pullMode) throw new IllegalStateException("Wrong state. AudioMixer can't be read.");
+        final int position = buffer.position();
+
+        if(previewRing != null){
+            previewRing.read(buffer);
+        }else{
+            while(buffer.hasRemaining()){
+                if(mixBuffer.hasRemaining()){
+                    final int limit = mixBuffer.limit();
+                    mixBuffer.limit(mixBuffer.position() + Math.min(buffer.remaining(), mixBuffer.remaining()));
+                    buffer.put(mixBuffer);
+                    mixBuffer.limit(limit);
+                }else if(!mixPreviewBlock()){
+                    break;
+                }
+            }
+        }
+
+        final int read = buffer.position() - position;
+        return read == 0 && buffer.hasRemaining() ? -1 : read;
+    }
+
+    private void startPreview(){
+        // Limiter holds back some values of each block, a block must be larger than that to put anything out
+        int blockSize = previewBlockSize;
+        if(parallelMixKernel != null && parallelMixKernel.getLimiter() != null){
+            blockSize = Math.max(blockSize, parallelMixKernel.getLimiter().getMaxBufferedSize() + channelCount);
+        }
+        blockSize = Math.max(blockSize - blockSize % channelCount, channelCount);
+        previewBlockSize = blockSize;
+        mixBuffer = ShortBuffer.allocate(Math.max(blockSize, MIX_BUFFER_SIZE));
+        mixBuffer.limit(0);
+
+        if(readAheadUs <= 0) return;
+
+        final int capacity = AudioConversions.usToShorts(readAheadUs, sampleRate, channelCount);
+        final PcmRingBuffer ring = new PcmRingBuffer(Math.max(capacity, blockSize));
+        stats.addAllocation(ring.getCapacity() * 2L);
+        previewRing = ring;
+        previewWorker = new Thread(TAG + "-preview"){
+            public void run() {
+                try{
+                    while(mixPreviewBlock()){
+                        if(!ring.write(mixBuffer)) break; // mixer stopped
+                    }
+                    ring.close();
+                }catch (Throwable e){
+                    ring.close(e);
+                }
+            }
+        };
+        previewWorker.start();
+    }
+
+    /*
+    * Mixes the next block of a mixer without an output into 'mixBuffer'. The limiter's held back values
+    * are the last block, resources are released after it. Returns false if there is nothing more to mix.
+    * The listener is called after the lock has been let go, so it may stop or release the mixer.
+    */
+    private boolean mixPreviewBlock(){
+        final boolean ended;
+        synchronized (previewLock){
+            // It is set under the lock by 'stop()'
+            if(mixingDone) return false;
+
+            ended = !isInputAvailable();
+            if(!ended){
+                mixNext(previewBlockSize);
+                updateProgress();
+            }else{
+                mixBuffer.clear();
+                if(parallelMixKernel != null) parallelMixKernel.flush(mixBuffer);
+                mixBuffer.flip();
+                mixedShorts += mixBuffer.remaining();
+                stats.addOutputSamples(mixBuffer.remaining());
+                mixingDone = true;
+                stats.end();
+
+                stopAndReleaseResources();
+                progress = 1.0;
+            }
+        }
+
+        if(processingListener != null){
+            processingListener.onProgress(progress);
+            if(ended) processingListener.onEnd();
+        }
+        return true;
+    }
+
     private void checkProcessState(){
         if(!started) throw new IllegalStateException("AudioMixer has not stared.");
+        if(pullMode) throw new IllegalStateException("AudioMixer has no output, mixed values must be read.");
         if(processing || mixingDone) throw new IllegalStateException("Wrong state.");
     }
 
 
-    private long encoderInputPresentationTimeUs = 0;
-    private boolean encoderInputDone = false;
-
-    private void encode(boolean addTrackOnly){
-        while (!mixingDone) {
+    private void process(){
+        // An external muxer must have been started before processing
+        if(output instanceof MuxerAudioOutput){
+            ((MuxerAudioOutput) output).notifyMuxerStarted();
+        }else if(output instanceof FanOutAudioOutput){
+            ((FanOutAudioOutput) output).notifyMuxerStarted();
+        }
 
-            // muxerTrackIndex > -1 means track has been added.
-            // So if it has been called only to add track we must stop here.
-            if(addTrackOnly && muxerTrackIndex > -1) break;
+        while(!mixingDone && isInputAvailable()){
+            mixAndWrite();
+        }
 
-            if(!encoderInputDone){
-                int encoderBufferIndex = encoder.dequeueInputBuffer(TIMEOUT_USEC);
-                if(encoderBufferIndex >= 0){
-                    if(isInputAvailable()){
+        // If it has not been stopped, output must write out everything it has got
+        if(!mixingDone){
+            if(parallelMixKernel != null){
+                mixBuffer.clear();
+                parallelMixKernel.flush(mixBuffer);
+                mixBuffer.flip();
+                mixedShorts += mixBuffer.remaining();
+                stats.addOutputSamples(mixBuffer.remaining());
+                output.write(mixBuffer);
+            }
 
-                        ShortBuffer encoderBuffer;
-                        if (Build.VERSION.SDK_INT >= 21) {
-                            encoderBuffer = encoder.getInputBuffer(encoderBufferIndex).asShortBuffer();
-                        }else{
-                            encoderBuffer = encoder.getInputBuffers()[encoderBufferIndex].asShortBuffer();
-                        }
-                        // mix the audios and add to encoder input buffer
-                        mix(encoderBuffer);
+            final long time = System.nanoTime();
+            output.end();
+            stats.addStageTime(MixerStats.Stage.OUTPUT, System.nanoTime() - time);
+            mixingDone = true;
+        }
+        stats.end();
 
-                        encoder.queueInputBuffer(encoderBufferIndex,
-                                0,
-                                encoderBuffer.position() * BYTES_PER_SHORT,
-                                encoderInputPresentationTimeUs,
-                                MediaCodec.BUFFER_FLAG_KEY_FRAME);
-                        encoderInputPresentationTimeUs += AudioConversions.shortsToUs(encoderBuffer.position(), sampleRate, channelCount);
+        stopAndReleaseResources();
 
-                    }else{
+        progress = 1.0;
+        if(processingListener != null){
+            processingListener.onProgress(progress);
+        }
+    }
 
-                        encoder.queueInputBuffer(encoderBufferIndex,0,0,0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-                        encoderInputDone = true;
+    private void mixAndWrite(){
+        mixNext(mixBuffer.capacity());
 
-                    }
-                }
-            }
+        final long time = System.nanoTime();
+        output.write(mixBuffer);
+        stats.addStageTime(MixerStats.Stage.OUTPUT, System.nanoTime() - time);
 
-            muxEncoderOutput();
+        updateProgress();
+        if(processingListener != null){
+            processingListener.onProgress(progress);
         }
+    }
 
-        if(!addTrackOnly){ // done encoding
-            stopAndReleaseResources();
+    /*
+    * Mixes up to 'size' values into 'mixBuffer' and flips it.
+    */
+    private void mixNext(int size){
+        timelineScheduler.update(mixedShorts);
 
-            progress = 1.0;
-            if(processingListener != null){
-                processingListener.onProgress(progress);
-            }
-        }
+        final long time = System.nanoTime();
+        mixBuffer.clear();
+        mixBuffer.limit(size);
+        mix(mixBuffer);
+        mixBuffer.flip();
+        mixedShorts += mixBuffer.remaining();
+        stats.addOutputSamples(mixBuffer.remaining());
+        stats.addStageTime(MixerStats.Stage.MIX, System.nanoTime() - time);
+    }
+
+    private void updateProgress(){
+        long mixedUs = mixedShorts / channelCount * 1000000L / sampleRate;
+        progress = mixedUs / (double)outputDurationUs;
+        if(progress > 1.0) progress = 1.0;
     }
 
     private boolean isInputAvailable(){
@@ -322,153 +565,106 @@ public class AudioMixer {
     }
 
     private void mix(ShortBuffer inputBuffer){
-        final int size = inputBuffer.remaining();
-
         if(mixingType == MixingType.PARALLEL){
 
-            for(int i = 0; i < size && !mixingDone; i++){
+            while(inputBuffer.hasRemaining() && !mixingDone){
                 // If all inputs are done we break the loop
                 if(!isInputAvailable()) break;
 
-                // Here we add all input's value after dividing by the number of inputs
-                // and put the result into inputBuffer as single value.
-                // It is actual parallel mixing
-                boolean put = false;
-                short result = 0;
-                for(int j = 0; j < audioInputList.size(); j++){
-                    // If all inputs are done we break the loop
-                    if(!isInputAvailable()) break;
-
-                    AudioInput input = audioInputList.get(j);
-                    if(input.hasRemaining()) {
-                        short value = input.getNext();
-                        //controlling volume
-                        value = (short)(value * input.getVolume());
-                        result += value / audioInputList.size();
-                        put = true;
-                    }
-                }
-                if(put) inputBuffer.put(result);
+                // All input's values are added block by block and put into inputBuffer.
+                // It is actual parallel mixing. If nothing is put, e.g. the limiter's held back values
+                // don't fit anymore, we continue with the next buffer.
+                if(parallelMixKernel.mix(baseInputForParallelType, audioInputList, inputBuffer) <= 0) break;
             }
 
         }else{ // Sequential
 
-            for(int i = 0; i < size && !mixingDone; i++){
+            while(inputBuffer.hasRemaining() && !mixingDone){
                 // If all inputs are done we break the loop
                 if(!isInputAvailable()) break;
 
-                // There must be at least one remaining value in any input, so we get that
-                AudioInput input = audioInputList.get(currentInputIndexForSequentialType);
-                short value = input.getNext();
-                //controlling volume
-                value = (short)(value * input.getVolume());
-                inputBuffer.put(value);
-
-                // If current input is done encoding we move to next
-                if(!input.hasRemaining()){
-                    currentInputIndexForSequentialType++;
+                final int inputIndex = currentInputIndexForSequentialType;
+                final int position = inputBuffer.position();
+                AudioInput input = audioInputList.get(inputIndex);
+                int blockSize = Math.min(inputBuffer.remaining(), MIX_BLOCK_SIZE);
+                final float volume = input.getVolume();
+
+                // Known silence is skipped and zeros are put at once, no matter what the volume is
+                final int silence = input.getSilentShorts();
+                if(silence > 0){
+                    int size = input.skipSilence(Math.min(blockSize, silence));
+                    inputBuffer.put(silenceBlock, 0, size);
+                    stats.addInputSamples(inputIndex, size);
+                    if(!input.hasRemaining()) currentInputIndexForSequentialType++;
+                    continue;
                 }
-            }
 
-        }
-    }
-
-    /*
-     * These variables are needed at writing data to muxer and progress calculation
-     */
-    private long lastMuxingPresentationTimeUs;
-    private long lastMuxingAudioTimeUs;
-
-    private void muxEncoderOutput(){
-        MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
-        int outBufferId = encoder.dequeueOutputBuffer(bufferInfo, TIMEOUT_USEC);
-
-        if (outBufferId == MediaCodec.INFO_TRY_AGAIN_LATER) {
-            // no output available yet
-        } else if (outBufferId == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
-
-        } else if (outBufferId == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-
-            muxerTrackIndex = muxer.addTrack(encoder.getOutputFormat());
-
-        } else if (outBufferId < 0) {
-
-            throw new RuntimeException("Unexpected result from decoder.dequeueOutputBuffer: " + outBufferId);
-
-        } else if (outBufferId >= 0) {
-            // Are we finished here?
-            if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                mixingDone = true;
-            }
-
-            /*if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                bufferInfo.size = 0;
-            }*/
-
-            if(bufferInfo.size > 0){
-                ByteBuffer encodedBuffer;
-                if (Build.VERSION.SDK_INT >= 21) {
-                    encodedBuffer = encoder.getOutputBuffer(outBufferId);
+                // Values which need no volume change are put straight from the input's view where it has one
+                ShortBuffer view = input.hasRemaining() && volume == 1f ? input.readView(blockSize) : null;
+                if(view != null){
+                    inputBuffer.put(view);
                 }else{
-                    encodedBuffer = encoder.getOutputBuffers()[outBufferId];
-                }
+                    int size = input.hasRemaining() ? input.read(mixBlock, 0, blockSize) : 0;
 
-                /*
-                 * Current muxing-presentation-time can't be less than previous one for muxer.
-                 * But we may get bufferInfo.presentation = 0 for the last buffer.
-                 * That is why we use our last calculated audio-time as current presentation time in this case.
-                 */
-                if(bufferInfo.presentationTimeUs < lastMuxingPresentationTimeUs){
-                    bufferInfo.presentationTimeUs = lastMuxingAudioTimeUs;
+                    //controlling volume
+                    if(volume != 1f){
+                        for(int i = 0; i < size; i++){
+                            mixBlock[i] = (short)(mixBlock[i] * volume);
+                        }
+                    }
+                    inputBuffer.put(mixBlock, 0, size);
                 }
+                stats.addInputSamples(inputIndex, inputBuffer.position() - position);
 
-                synchronized (muxer){
-                    muxer.writeSampleData(muxerTrackIndex, encodedBuffer, bufferInfo);
-                    lastMuxingPresentationTimeUs = bufferInfo.presentationTimeUs;
-
-                    //AudioConversions.bytesToUs(bufferInfo.size, sampleRate, channelCount);
-                    long approxPresentationTimeDiff = (1024 * 1000000) / sampleRate; // I don't know why this is;
-                    lastMuxingAudioTimeUs = lastMuxingPresentationTimeUs + approxPresentationTimeDiff;
+                // If current input is done encoding we move to next
+                if(!input.hasRemaining()){
+                    currentInputIndexForSequentialType++;
                 }
             }
-            encoder.releaseOutputBuffer(outBufferId, false);
 
-            progress = lastMuxingAudioTimeUs / (double)outputDurationUs;
-            if(progress > 1.0) progress = 1.0;
-
-            if(processingListener != null){
-                processingListener.onProgress(progress);
-            }
         }
     }
 
     private synchronized void stopAndReleaseResources(){
         for(AudioInput input: audioInputList) input.release();
         audioInputList.clear();
+        if(timelineScheduler != null) timelineScheduler.clear();
 
-        if(encoder != null){
-            encoder.stop();
-            encoder.release();
-            encoder = null;
+        // Inputs have given their decoders back by now
+        if(ownsDecoderPool){
+            decoderPool.clear();
+            decoderPool = null;
+            ownsDecoderPool = false;
         }
 
-        if(muxer != null){
-            if(!isMuxerExternal){
-                // Muxer may not has been ready to stop properly due to early stopping.
-                // So we should handle exception here
-                try{muxer.stop();} catch (Exception e){}
-                muxer.release();
-            }
-            muxer = null;
+        if(output != null){
+            output.release();
+            output = null;
         }
     }
 
     public void stop(){
-        mixingDone = true;
+        // A block being mixed for 'read()' in another thread is finished first
+        synchronized (previewLock){
+            mixingDone = true;
+        }
         if(processingThread != null){
-            try { processingThread.join(); }catch (InterruptedException e){ }
+            join(processingThread);
             processingThread = null;
         }
+        if(previewWorker != null){
+            previewRing.abort();
+            join(previewWorker);
+            previewWorker = null;
+        }
+    }
+
+    /*
+    * The listener may stop the mixer from the thread which calls it, a thread can't wait for itself.
+    */
+    private static void join(Thread thread){
+        if(thread == Thread.currentThread()) return;
+        try { thread.join(); }catch (InterruptedException e){ }
     }
 
     public void release(){
@@ -476,6 +672,60 @@ public class AudioMixer {
         stopAndReleaseResources();
     }
 
+    /*
+    * Most MediaCodec instances the job holds at the same time: the encoders of the output and
+    * the decoders of inputs which overlap once they are activated ahead of their start.
+    * It is an upper bound and it doesn't include idle decoders kept by the decoder pool.
+    * Inputs, output, mixing type and looping must have been set, it can be called before starting.
+    */
+    public int getMaxCodecCount(){
+        int encoderCount = 0;
+        if(output instanceof MuxerAudioOutput) encoderCount = 1;
+        else if(output instanceof FanOutAudioOutput) encoderCount = ((FanOutAudioOutput) output).getEncoderCount();
+
+        long durationUs = 0;
+        for(AudioInput input: audioInputList){
+            if(mixingType == MixingType.SEQUENTIAL) durationUs += input.getDurationUs();
+            else durationUs = Math.max(durationUs, input.getDurationUs());
+        }
+
+        // Each decoding input holds its decoder from its activation till it is deactivated after its end
+        List<long[]> spans = new ArrayList<>();
+        long inputPositionUs = 0;
+        for(AudioInput input: audioInputList){
+            if(input instanceof GeneralAudioInput && ((GeneralAudioInput) input).usesCodec()){
+                long startUs = inputPositionUs + ((GeneralAudioInput) input).getStartOffsetUs() - ACTIVATION_LEAD_US;
+                long endUs = inputPositionUs + input.getDurationUs() + ACTIVATION_LEAD_US;
+                if(mixingType == MixingType.PARALLEL && loopingEnabled) endUs = durationUs + ACTIVATION_LEAD_US;
+                spans.add(new long[]{startUs, endUs});
+            }
+            if(mixingType == MixingType.SEQUENTIAL) inputPositionUs += input.getDurationUs();
+        }
+
+        // Counts the most spans which overlap by walking their starts and ends in order
+        final int spanCount = spans.size();
+        long[] starts = new long[spanCount];
+        long[] ends = new long[spanCount];
+        for(int i = 0; i < spanCount; i++){
+            starts[i] = spans.get(i)[0];
+            ends[i] = spans.get(i)[1];
+        }
+        Arrays.sort(starts);
+        Arrays.sort(ends);
+        int decoderCount = 0;
+        int maxDecoderCount = 0;
+        for(int i = 0, j = 0; i < spanCount; i++){
+            while(ends[j] < starts[i]){
+                j++;
+                decoderCount--;
+            }
+            decoderCount++;
+            if(decoderCount > maxDecoderCount) maxDecoderCount = decoderCount;
+        }
+
+        return encoderCount + maxDecoderCount;
+    }
+
     /************************ Getters and Setters ***********************/
 
     public void addDataSource(AudioInput audioInput) throws IOException {
@@ -494,6 +744,57 @@ public class AudioMixer {
         return processing;
     }
 
+    public boolean isAsyncCodecEnabled() {
+        return asyncCodecEnabled;
+    }
+
+    public boolean isBackgroundDecodingEnabled() {
+        return backgroundDecodingEnabled;
+    }
+
+    public boolean isPrerollEnabled() {
+        return prerollEnabled;
+    }
+
+    public boolean isLimiterEnabled() {
+        return limiterEnabled;
+    }
+
+    public int getPreviewBlockSize() {
+        return previewBlockSize;
+    }
+
+    public long getReadAheadUs() {
+        return readAheadUs;
+    }
+
+    public ResamplingQuality getResamplingQuality() {
+        return resamplingQuality;
+    }
+
+    public PcmCache getPcmCache() {
+        return pcmCache;
+    }
+
+    public long getLoopCacheMaxSize() {
+        return loopCacheMaxSize;
+    }
+
+    public DecoderPool getDecoderPool() {
+        return decoderPool;
+    }
+
+    public boolean isDecoderPoolingEnabled() {
+        return decoderPoolingEnabled;
+    }
+
+    /*
+    * Counters of the current job, or of the last one after processing has ended.
+    */
+    public MixerStats getStats() {
+        return stats;
+    }
+
     public double getProgress() {
         return progress;
     }
@@ -522,6 +823,66 @@ public class AudioMixer {
         this.loopingEnabled = loopingEnabled;
     }
 
+    public void setAsyncCodecEnabled(boolean asyncCodecEnabled) {
+        this.asyncCodecEnabled = asyncCodecEnabled;
+    }
+
+    public void setBackgroundDecodingEnabled(boolean backgroundDecodingEnabled) {
+        this.backgroundDecodingEnabled = backgroundDecodingEnabled;
+    }
+
+    public void setPrerollEnabled(boolean prerollEnabled) {
+        this.prerollEnabled = prerollEnabled;
+    }
+
+    /*
+    * It is used in parallel mixing only and must be set before starting.
+    */
+    public void setLimiterEnabled(boolean limiterEnabled) {
+        this.limiterEnabled = limiterEnabled;
+    }
+
+    /*
+    * Number of values mixed at a time when values are read. It must be set before starting.
+    */
+    public void setPreviewBlockSize(int previewBlockSize) {
+        this.previewBlockSize = previewBlockSize;
+    }
+
+    /*
+    * How much is mixed ahead of reading in a separate thread, 0 mixes in the reading thread.
+    * It must be set before starting.
+    */
+    public void setReadAheadUs(long readAheadUs) {
+        this.readAheadUs = readAheadUs;
+    }
+
+    public void setResamplingQuality(ResamplingQuality resamplingQuality) {
+        this.resamplingQuality = resamplingQuality;
+    }
+
+    public void setPcmCache(PcmCache pcmCache) {
+        this.pcmCache = pcmCache;
+    }
+
+    public void setLoopCacheMaxSize(long loopCacheMaxSize) {
+        this.loopCacheMaxSize = loopCacheMaxSize;
+    }
+
+    /*
+    * Sets a pool which may be shared with other mixers. It must be set before starting.
+    */
+    public void setDecoderPool(DecoderPool decoderPool) {
+        this.decoderPool = decoderPool;
+    }
+
+    /*
+    * If it is disabled and no pool is set, each input creates and releases its own decoder.
+    */
+    public void setDecoderPoolingEnabled(boolean decoderPoolingEnabled) {
+        this.decoderPoolingEnabled = decoderPoolingEnabled;
+    }
+
     public void setSampleRate(int sampleRate) {
         this.sampleRate = sampleRate;
     }
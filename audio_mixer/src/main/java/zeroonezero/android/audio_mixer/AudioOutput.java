@@ -0,0 +1,41 @@
+package zeroonezero.android.audio_mixer;
+
+import java.io.IOException;
+import java.nio.ShortBuffer;
+
+/**
+ * Where {@link AudioMixer} writes mixed 16 bit PCM.
+ * See {@link MuxerAudioOutput} for AAC encoding into a MediaMuxer and {@link WavAudioOutput}
+ * for writing PCM straight into a WAV or raw PCM file.
+ */
+public interface AudioOutput {
+
+    /**
+     * Prepares the output for values of the given format. It is called from {@link AudioMixer#start()}.
+     *
+     * @param bitRate requested bitrate, outputs which don't compress may ignore it
+     */
+    void start(int sampleRate, int channelCount, int bitRate) throws IOException;
+
+    /**
+     * Some outputs need values before processing starts, e.g. an encoder has to add its track
+     * to an external muxer before the muxer is started. The mixer writes values from
+     * {@link AudioMixer#start()} till this returns true.
+     */
+    boolean isReady();
+
+    /**
+     * Writes all remaining values of the buffer, blocking if the output can't take them yet.
+     */
+    void write(ShortBuffer buffer);
+
+    /**
+     * Called after the last value has been written. It returns after everything has been written out.
+     */
+    void end();
+
+    /**
+     * Releases resources. It is called even if the output hasn't been ended, e.g. when mixing is stopped.
+     */
+    void release();
+}
@@ -0,0 +1,110 @@
+package zeroonezero.android.audio_mixer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps stopped decoders for reuse, so inputs of the same kind don't create a new codec each,
+ * e.g. when hundreds of AAC clips are concatenated.
+ *
+ * Decoders are kept by MIME type, sample rate and channel count. A decoder which is given back
+ * is reset to the uninitialized state and configured again by the next input which takes it.
+ * Idle decoders still count against the device's codec instance limit, so only a few are kept.
+ */
+public class DecoderPool {
+
+    public static final int DEFAULT_MAX_IDLE_DECODERS = 2;
+
+    private final int maxIdleDecoders;
+    private final Map<String, ArrayDeque<MediaCodec>> idleDecoders = new HashMap<>();
+    private int idleCount;
+
+    public DecoderPool() {
+        this(DEFAULT_MAX_IDLE_DECODERS);
+    }
+
+    /**
+     * @param maxIdleDecoders maximum number of decoders kept while no input uses them
+     */
+    public DecoderPool(int maxIdleDecoders) {
+        this.maxIdleDecoders = maxIdleDecoders;
+    }
+
+    public int getMaxIdleDecoders() {
+        return maxIdleDecoders;
+    }
+
+    private static String createKey(MediaFormat format) {
+        String key = format.getString(MediaFormat.KEY_MIME);
+        try{
+            final int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            final int channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            key += "|" + sampleRate + "x" + channelCount;
+        }catch (Exception e){ }
+        return key;
+    }
+
+    /**
+     * Returns an idle decoder for the format, or creates a new one if there is none.
+     * The decoder is not configured.
+     */
+    public synchronized MediaCodec acquire(MediaFormat format) throws IOException {
+        ArrayDeque<MediaCodec> decoders = idleDecoders.get(createKey(format));
+        if(decoders != null && !decoders.isEmpty()){
+            idleCount--;
+            return decoders.poll();
+        }
+        return MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+    }
+
+    /**
+     * Takes back a stopped decoder which was configured with the format.
+     * It is released instead if the pool is full or the decoder can't be reset.
+     */
+    public synchronized void recycle(MediaFormat format, MediaCodec decoder) {
+        if(idleCount >= maxIdleDecoders){
+            decoder.release();
+            return;
+        }
+
+        // A stopped codec is uninitialized already, reset also clears an error state it might be in
+        if(Build.VERSION.SDK_INT >= 21){
+            try{
+                decoder.reset();
+            }catch (Exception e){
+                decoder.release();
+                return;
+            }
+        }
+
+        String key = createKey(format);
+        ArrayDeque<MediaCodec> decoders = idleDecoders.get(key);
+        if(decoders == null){
+            decoders = new ArrayDeque<>();
+            idleDecoders.put(key, decoders);
+        }
+        decoders.add(decoder);
+        idleCount++;
+    }
+
+    public synchronized int getIdleCount() {
+        return idleCount;
+    }
+
+    /**
+     * Releases all idle decoders.
+     */
+    public synchronized void clear() {
+        for(ArrayDeque<MediaCodec> decoders : idleDecoders.values()){
+            for(MediaCodec decoder : decoders) decoder.release();
+        }
+        idleDecoders.clear();
+        idleCount = 0;
+    }
+}
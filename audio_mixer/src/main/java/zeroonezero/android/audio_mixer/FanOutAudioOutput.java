@@ -0,0 +1,195 @@
+package zeroonezero.android.audio_mixer;
+
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import zeroonezero.android.audio_mixer.resample.ResamplingQuality;
+
+/**
+ * An {@link AudioOutput} which writes one mix into several outputs, e.g. the same mix as AAC in a few bitrates.
+ * Decoding and mixing are done once and only encoding is done per output.
+ *
+ * Each output may have its own sample rate, channel count and bitrate. Values are converted from the mix's format
+ * for outputs which differ from it, so the mix should be made in the highest sample rate of them.
+ * Outputs with their own muxers are supported, an external muxer must not be shared by two of them.
+ * An output gets values till all of them are ready, so the ones with external muxers hold values
+ * which come before their muxers are started, see {@link MuxerAudioOutput#notifyMuxerStarted()}.
+ */
+public class FanOutAudioOutput implements AudioOutput {
+
+    private final List<Branch> branches = new ArrayList<>();
+    private ResamplingQuality resamplingQuality = ResamplingQuality.FAST;
+    private MixerStats mixerStats;
+
+    private int sampleRate;
+    private int channelCount;
+
+    private static class Branch {
+        final AudioOutput output;
+        final int requestedSampleRate;
+        final int requestedChannelCount;
+        final int requestedBitRate;
+
+        int sampleRate;
+        int channelCount;
+        // It is null if the output takes the mix's format
+        AudioBufferConverter converter;
+
+        Branch(AudioOutput output, int sampleRate, int channelCount, int bitRate) {
+            this.output = output;
+            this.requestedSampleRate = sampleRate;
+            this.requestedChannelCount = channelCount;
+            this.requestedBitRate = bitRate;
+        }
+    }
+
+    /*
+    * Adds an output which takes the mix's format.
+    */
+    public FanOutAudioOutput addOutput(AudioOutput output) {
+        return addOutput(output, -1, -1, -1);
+    }
+
+    /*
+    * Adds an output which takes the mix's sample rate and channel count with its own bitrate.
+    */
+    public FanOutAudioOutput addOutput(AudioOutput output, int bitRate) {
+        return addOutput(output, -1, -1, bitRate);
+    }
+
+    /*
+    * Values less than 1 mean the mix's ones. Outputs must be added before starting.
+    */
+    public FanOutAudioOutput addOutput(AudioOutput output, int sampleRate, int channelCount, int bitRate) {
+        branches.add(new Branch(output, sampleRate, channelCount, bitRate));
+        return this;
+    }
+
+    public int getOutputCount() {
+        return branches.size();
+    }
+
+    public AudioOutput getOutput(int index) {
+        return branches.get(index).output;
+    }
+
+    public ResamplingQuality getResamplingQuality() {
+        return resamplingQuality;
+    }
+
+    /*
+    * Quality of converting into outputs of another sample rate. It must be set before starting.
+    */
+    public void setResamplingQuality(ResamplingQuality resamplingQuality) {
+        this.resamplingQuality = resamplingQuality;
+    }
+
+    /*
+    * Number of outputs which encode with a MediaCodec.
+    */
+    public int getEncoderCount() {
+        int count = 0;
+        for(Branch branch : branches){
+            if(branch.output instanceof MuxerAudioOutput) count++;
+        }
+        return count;
+    }
+
+    /*
+    * It is applied to outputs which are MuxerAudioOutputs. It must be set before starting.
+    */
+    public void setAsyncCodecEnabled(boolean asyncCodecEnabled) {
+        for(Branch branch : branches){
+            if(branch.output instanceof MuxerAudioOutput){
+                ((MuxerAudioOutput) branch.output).setAsyncCodecEnabled(asyncCodecEnabled);
+            }
+        }
+    }
+
+    /*
+    * It is applied to outputs which are MuxerAudioOutputs, the mixer calls it when processing starts.
+    */
+    public void notifyMuxerStarted() {
+        for(Branch branch : branches){
+            if(branch.output instanceof MuxerAudioOutput){
+                ((MuxerAudioOutput) branch.output).notifyMuxerStarted();
+            }
+        }
+    }
+
+    /*
+    * Encoding and muxing times of all outputs are summed in it.
+    */
+    public void setMixerStats(MixerStats mixerStats) {
+        this.mixerStats = mixerStats;
+        for(Branch branch : branches){
+            if(branch.output instanceof MuxerAudioOutput){
+                ((MuxerAudioOutput) branch.output).setMixerStats(mixerStats);
+            }
+            if(branch.converter != null) branch.converter.setMixerStats(mixerStats);
+        }
+    }
+
+    @Override
+    public void start(int sampleRate, int channelCount, int bitRate) throws IOException {
+        if(branches.isEmpty()) throw new UnsupportedOperationException("There should be at least one output.");
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+
+        for(Branch branch : branches){
+            branch.sampleRate = branch.requestedSampleRate > 0 ? branch.requestedSampleRate : sampleRate;
+            branch.channelCount = branch.requestedChannelCount > 0 ? branch.requestedChannelCount : channelCount;
+            if(branch.sampleRate != sampleRate || branch.channelCount != channelCount){
+                branch.converter = new AudioBufferConverter(resamplingQuality);
+                branch.converter.setMixerStats(mixerStats);
+            }
+            branch.output.start(branch.sampleRate, branch.channelCount,
+                    branch.requestedBitRate > 0 ? branch.requestedBitRate : bitRate);
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        for(Branch branch : branches){
+            if(!branch.output.isReady()) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void write(ShortBuffer buffer) {
+        // Every output writes the same values, so we go back to them for each one
+        final int position = buffer.position();
+        for(Branch branch : branches){
+            buffer.position(position);
+            if(branch.converter == null){
+                branch.output.write(buffer);
+            }else{
+                branch.output.write(branch.converter.convert(buffer, sampleRate, channelCount,
+                        branch.sampleRate, branch.channelCount));
+            }
+        }
+        buffer.position(buffer.limit());
+    }
+
+    @Override
+    public void end() {
+        for(Branch branch : branches){
+            // Resampler may hold back a few values
+            if(branch.converter != null){
+                branch.output.write(branch.converter.flush(sampleRate, channelCount,
+                        branch.sampleRate, branch.channelCount));
+            }
+            branch.output.end();
+        }
+    }
+
+    @Override
+    public void release() {
+        for(Branch branch : branches){
+            branch.output.release();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package zeroonezero.android.audio_mixer;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ShortBuffer;
+
+import zeroonezero.android.audio_mixer.remix.DownMixAudioRemixer;
+
+/**
+ * Remixes and resamples audio data in a single pass over the input buffer.
+ *
+ * It produces the same kind of output as {@link zeroonezero.android.audio_mixer.remix.DefaultAudioRemixer}
+ * followed by {@link zeroonezero.android.audio_mixer.resample.DefaultAudioResampler}:
+ * frames are dropped for downsampling and repeated for upsampling.
+ * But each output frame is remixed right from its input frame, so there is no intermediate buffer
+ * and dropped frames are never remixed.
+ *
+ * Consecutive calls are treated as one stream like {@link zeroonezero.android.audio_mixer.resample.StreamingAudioResampler}.
+ * Output frame 'k' of the stream is always taken from input frame 'floor(k * inputSampleRate / outputSampleRate)',
+ * so there is no rounding drift at buffer boundaries.
+ */
+public class FusedAudioConverter {
+
+    /*
+    * Current stream. Sample rates are reduced to 'upFactor / downFactor'.
+    */
+    private int inputSampleRate = -1;
+    private int outputSampleRate = -1;
+    private int upFactor;
+    private int downFactor;
+
+    /*
+    * Source of the next output frame is 'frame + numerator / upFactor' from the start of the next input buffer.
+    */
+    private long frame;
+    private int numerator;
+
+    /**
+     * Returns the exact output size (in shorts) the next call of
+     * {@link #convert(ShortBuffer, int, int, ShortBuffer, int, int)} produces for an input buffer
+     * of the given size (in shorts).
+     */
+    public int getOutputSize(int inputSize, int inputSampleRate, int inputChannelCount,
+                             int outputSampleRate, int outputChannelCount) {
+        final int inputFrames = inputSize / inputChannelCount;
+        if (inputSampleRate == outputSampleRate) return inputFrames * outputChannelCount;
+
+        long frame = this.frame;
+        long numerator = this.numerator;
+        long upFactor = this.upFactor;
+        long downFactor = this.downFactor;
+        if (!isStream(inputSampleRate, outputSampleRate)) {
+            final int gcd = gcd(inputSampleRate, outputSampleRate);
+            frame = 0;
+            numerator = 0;
+            upFactor = outputSampleRate / gcd;
+            downFactor = inputSampleRate / gcd;
+        }
+        return (int) getOutputFrames(inputFrames, frame, numerator, upFactor, downFactor) * outputChannelCount;
+    }
+
+    /*
+    * Number of 'k' for which 'frame + (numerator + k * downFactor) / upFactor < inputFrames'
+    */
+    private static long getOutputFrames(int inputFrames, long frame, long numerator, long upFactor, long downFactor) {
+        final long end = inputFrames * upFactor;
+        final long start = frame * upFactor + numerator;
+        if (end <= start) return 0;
+        return (end - start + downFactor - 1) / downFactor;
+    }
+
+    /**
+     * Converts input audio from input buffer into the output buffer.
+     * The whole input buffer is consumed.
+     *
+     * @param inputBuffer the input buffer
+     * @param outputBuffer the output buffer, it should have at least
+     *                     {@link #getOutputSize(int, int, int, int, int)} remaining space
+     */
+    public void convert(@NonNull ShortBuffer inputBuffer, int inputSampleRate, int inputChannelCount,
+                        @NonNull ShortBuffer outputBuffer, int outputSampleRate, int outputChannelCount) {
+        if (inputSampleRate == outputSampleRate && inputChannelCount == outputChannelCount) {
+            outputBuffer.put(inputBuffer);
+            return;
+        }
+        ensureStream(inputSampleRate, outputSampleRate);
+
+        final int base = inputBuffer.position();
+        final int inputFrames = inputBuffer.remaining() / inputChannelCount;
+        final int outputFrames = (int) Math.min(
+                getOutputFrames(inputFrames, frame, numerator, upFactor, downFactor),
+                outputBuffer.remaining() / outputChannelCount);
+
+        // We step through source frames with integers instead of dividing for each frame.
+        final int upFactor = this.upFactor;
+        final int step = downFactor / upFactor;
+        final int remainder = downFactor % upFactor;
+        int frame = (int) this.frame;
+        int numerator = this.numerator;
+
+        if (inputChannelCount == 1 && outputChannelCount == 1) {
+            for (int k = 0; k < outputFrames; k++) {
+                outputBuffer.put(inputBuffer.get(base + frame));
+
+                frame += step;
+                numerator += remainder;
+                if (numerator >= upFactor) { numerator -= upFactor; frame++; }
+            }
+        } else if (inputChannelCount == 2 && outputChannelCount == 2) {
+            for (int k = 0; k < outputFrames; k++) {
+                final int index = base + frame * 2;
+                outputBuffer.put(inputBuffer.get(index));
+                outputBuffer.put(inputBuffer.get(index + 1));
+
+                frame += step;
+                numerator += remainder;
+                if (numerator >= upFactor) { numerator -= upFactor; frame++; }
+            }
+        } else if (inputChannelCount == 1 && outputChannelCount == 2) {
+            // Up-mix mono to stereo
+            for (int k = 0; k < outputFrames; k++) {
+                final short value = inputBuffer.get(base + frame);
+                outputBuffer.put(value);
+                outputBuffer.put(value);
+
+                frame += step;
+                numerator += remainder;
+                if (numerator >= upFactor) { numerator -= upFactor; frame++; }
+            }
+        } else if (inputChannelCount == 2 && outputChannelCount == 1) {
+            // Down-mix stereo to mono
+            for (int k = 0; k < outputFrames; k++) {
+                final int index = base + frame * 2;
+                outputBuffer.put(DownMixAudioRemixer.downMix(inputBuffer.get(index), inputBuffer.get(index + 1)));
+
+                frame += step;
+                numerator += remainder;
+                if (numerator >= upFactor) { numerator -= upFactor; frame++; }
+            }
+        } else {
+            throw new UnsupportedOperationException("Channel conversion (" + inputChannelCount
+                    + " to " + outputChannelCount + ") not supported.");
+        }
+
+        // Next source frame is relative to the next input buffer
+        this.frame = frame - inputFrames;
+        this.numerator = numerator;
+        inputBuffer.position(inputBuffer.limit());
+    }
+
+    /**
+     * Starts a new stream.
+     */
+    public void reset() {
+        inputSampleRate = -1;
+        outputSampleRate = -1;
+    }
+
+    private boolean isStream(int inputSampleRate, int outputSampleRate) {
+        return this.inputSampleRate == inputSampleRate && this.outputSampleRate == outputSampleRate;
+    }
+
+    private void ensureStream(int inputSampleRate, int outputSampleRate) {
+        if (isStream(inputSampleRate, outputSampleRate)) return;
+
+        final int gcd = gcd(inputSampleRate, outputSampleRate);
+        this.inputSampleRate = inputSampleRate;
+        this.outputSampleRate = outputSampleRate;
+        upFactor = outputSampleRate / gcd;
+        downFactor = inputSampleRate / gcd;
+        frame = 0;
+        numerator = 0;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,175 @@
+package zeroonezero.android.audio_mixer;
+
+/**
+ * A peak limiter for the float mix bus, so mixed inputs don't need to be divided down to avoid clipping.
+ *
+ * Values are processed in chunks of the lookahead duration. A chunk is held back till the peak of the next one
+ * is known, then its gain is ramped linearly from the current gain to one which keeps both chunks under the ceiling.
+ * As the ramp ends no higher than what either chunk allows, no value exceeds the ceiling and the gain never jumps.
+ * Gain recovers towards 1 with the release time. Output lags input by up to two chunks, the rest comes from {@link #flush}.
+ */
+public class LookaheadLimiter {
+
+    public static final long DEFAULT_LOOKAHEAD_US = 3000;
+    public static final long DEFAULT_RELEASE_US = 100000;
+    // About -0.2 dBFS, so rounding can't reach the clipping point
+    public static final float DEFAULT_CEILING = 32000f;
+
+    private final int channelCount;
+    private final int chunkFrames;
+    private final int chunkSize; // in values
+    private final float ceiling;
+    private final float releaseCoefficient; // per chunk
+
+    /*
+    * 'incoming' is filled by 'process()'. When it is full, 'delayed' is limited and put out
+    * and the two are swapped.
+    */
+    private float[] incoming;
+    private int incomingSize;
+    private float[] delayed;
+    private float delayedPeak;
+    private boolean hasDelayed;
+    private float gain = 1f;
+
+    public LookaheadLimiter(int sampleRate, int channelCount) {
+        this(sampleRate, channelCount, DEFAULT_LOOKAHEAD_US, DEFAULT_RELEASE_US, DEFAULT_CEILING);
+    }
+
+    /**
+     * @param ceiling highest absolute value put out, on the 16 bit scale
+     */
+    public LookaheadLimiter(int sampleRate, int channelCount, long lookaheadUs, long releaseUs, float ceiling) {
+        this.channelCount = channelCount;
+        this.chunkFrames = (int) Math.max(1, lookaheadUs * sampleRate / 1000000L);
+        this.chunkSize = chunkFrames * channelCount;
+        this.ceiling = ceiling;
+        this.releaseCoefficient = releaseUs <= 0 ? 1f
+                : (float) (1 - Math.exp(-(double) lookaheadUs / releaseUs));
+        incoming = new float[chunkSize];
+        delayed = new float[chunkSize];
+    }
+
+    /**
+     * Number of values which are held back, {@link #process} may put out this many more values than it is given.
+     */
+    public int getBufferedSize() {
+        return incomingSize + (hasDelayed ? chunkSize : 0);
+    }
+
+    /**
+     * Most values which can be held back at once.
+     */
+    public int getMaxBufferedSize() {
+        return 2 * chunkSize;
+    }
+
+    public float getGain() {
+        return gain;
+    }
+
+    /**
+     * Takes 'len' values of 'src' and puts limited values into 'dst'.
+     * 'dst' must have room for 'len + getBufferedSize()' values.
+     *
+     * @return number of values put into 'dst'
+     */
+    public int process(float[] src, int off, int len, short[] dst, int dstOff) {
+        int put = 0;
+        int taken = 0;
+        while(taken < len){
+            final int count = Math.min(len - taken, chunkSize - incomingSize);
+            System.arraycopy(src, off + taken, incoming, incomingSize, count);
+            incomingSize += count;
+            taken += count;
+
+            if(incomingSize == chunkSize){
+                final float peak = peak(incoming, chunkSize);
+                if(hasDelayed){
+                    put += limit(delayed, chunkSize, delayedPeak, peak, dst, dstOff + put);
+                }else{
+                    // Nothing came before the first chunk, so we start at the gain it needs
+                    gain = gainFor(peak, 1f);
+                    hasDelayed = true;
+                }
+                float[] swap = delayed;
+                delayed = incoming;
+                incoming = swap;
+                delayedPeak = peak;
+                incomingSize = 0;
+            }
+        }
+        return put;
+    }
+
+    /**
+     * Puts out all values which are held back. 'dst' must have room for 'getBufferedSize()' values.
+     *
+     * @return number of values put into 'dst'
+     */
+    public int flush(short[] dst, int dstOff) {
+        int put = 0;
+        final float peak = peak(incoming, incomingSize);
+        if(hasDelayed){
+            put += limit(delayed, chunkSize, delayedPeak, peak, dst, dstOff);
+        }else{
+            gain = gainFor(peak, 1f);
+        }
+        put += limit(incoming, incomingSize, peak, 0f, dst, dstOff + put);
+        incomingSize = 0;
+        hasDelayed = false;
+        return put;
+    }
+
+    public void reset() {
+        incomingSize = 0;
+        hasDelayed = false;
+        gain = 1f;
+    }
+
+    /*
+    * Ramps the gain over the chunk to one which both this and the next chunk allow.
+    */
+    private int limit(float[] chunk, int size, float peak, float nextPeak, short[] dst, int dstOff) {
+        float target = gain + (1f - gain) * releaseCoefficient;
+        target = gainFor(peak, target);
+        target = gainFor(nextPeak, target);
+
+        final int frames = size / channelCount;
+        final float step = frames > 0 ? (target - gain) / frames : 0;
+        float frameGain = gain;
+        int index = 0;
+        for(int f = 0; f < frames; f++){
+            frameGain += step;
+            for(int c = 0; c < channelCount; c++, index++){
+                dst[dstOff + index] = toShort(chunk[index] * frameGain);
+            }
+        }
+        // Values of a partial last frame, which only the end of a stream can have, take the gain the ramp ends at
+        for(; index < size; index++){
+            dst[dstOff + index] = toShort(chunk[index] * target);
+        }
+        gain = target;
+        return size;
+    }
+
+    private static short toShort(float value) {
+        int rounded = Math.round(value);
+        if(rounded > Short.MAX_VALUE) rounded = Short.MAX_VALUE;
+        else if(rounded < Short.MIN_VALUE) rounded = Short.MIN_VALUE;
+        return (short) rounded;
+    }
+
+    private float gainFor(float peak, float gain) {
+        return peak * gain > ceiling ? ceiling / peak : gain;
+    }
+
+    private static float peak(float[] values, int size) {
+        float peak = 0;
+        for(int i = 0; i < size; i++){
+            float value = Math.abs(values[i]);
+            if(value > peak) peak = value;
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,165 @@
+package zeroonezero.android.audio_mixer;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many mixing jobs on a fixed number of worker threads, while keeping the number of MediaCodec instances
+ * alive at the same time under a limit, so a device is kept busy without codec allocation failures.
+ *
+ * Before a job starts, it reserves as many codec instances as it holds at most at once,
+ * see {@link AudioMixer#getMaxCodecCount()}, and gives them back when it has ended. A job reserves all of them
+ * at once, so jobs can't block each other half way. Jobs wait for their reservation in order of submission,
+ * so a large job isn't starved by small ones. A job which needs more than the whole limit runs with all of it.
+ *
+ * Jobs share a {@link DecoderPool} unless they have their own one. Its idle decoders are counted against the limit
+ * up front, so the rest of the limit is left for the jobs.
+ */
+public class MixJobExecutor {
+
+    public static final int DEFAULT_MAX_CODEC_INSTANCES = 8;
+
+    private static final AtomicInteger executorCount = new AtomicInteger();
+
+    private final int workerCount;
+    private final int maxCodecInstances;
+    private final int jobCodecInstances;
+    private final Semaphore codecPermits;
+    private final DecoderPool decoderPool;
+    private final ExecutorService executorService;
+
+    /**
+     * Uses a worker per processor and {@link #DEFAULT_MAX_CODEC_INSTANCES}.
+     */
+    public MixJobExecutor() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_CODEC_INSTANCES);
+    }
+
+    /**
+     * @param workerCount number of jobs which may run at the same time
+     * @param maxCodecInstances number of MediaCodec instances which may be alive at the same time
+     */
+    public MixJobExecutor(int workerCount, int maxCodecInstances) {
+        if(workerCount < 1) throw new IllegalArgumentException("There should be at least one worker.");
+        if(maxCodecInstances < 1) throw new IllegalArgumentException("There should be at least one codec instance.");
+        this.workerCount = workerCount;
+        this.maxCodecInstances = maxCodecInstances;
+
+        // A job needs an encoder and a decoder at least, the pool gets only what is left over beyond that
+        decoderPool = new DecoderPool(Math.max(0, Math.min(DecoderPool.DEFAULT_MAX_IDLE_DECODERS, maxCodecInstances - 2)));
+        jobCodecInstances = maxCodecInstances - decoderPool.getMaxIdleDecoders();
+        codecPermits = new Semaphore(jobCodecInstances, true);
+
+        final String namePrefix = "MixJobExecutor-" + executorCount.incrementAndGet() + "-worker-";
+        executorService = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+            }
+        });
+    }
+
+    /**
+     * Queues a mixer which has its inputs and output but has not started.
+     * The executor starts, processes and releases it. Cancelling the future stops the mixer.
+     *
+     * @return future of the job's counters, it fails with the exception the job has thrown
+     */
+    public Future<MixerStats> submit(AudioMixer mixer) {
+        if(mixer.getDecoderPool() == null && mixer.isDecoderPoolingEnabled()) mixer.setDecoderPool(decoderPool);
+        final int codecCount = Math.min(mixer.getMaxCodecCount(), jobCodecInstances);
+
+        MixJob job = new MixJob(mixer, codecCount);
+        executorService.execute(job);
+        return job;
+    }
+
+    /**
+     * Stops taking new jobs, jobs which are queued or running are done.
+     */
+    public void shutdown() {
+        executorService.shutdown();
+    }
+
+    /**
+     * Waits till all jobs are done after {@link #shutdown()}, then releases the shared decoders.
+     *
+     * @return false if the timeout has elapsed first
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        if(!executorService.awaitTermination(timeout, unit)) return false;
+        decoderPool.clear();
+        return true;
+    }
+
+    public boolean isShutdown() {
+        return executorService.isShutdown();
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    public int getMaxCodecInstances() {
+        return maxCodecInstances;
+    }
+
+    /*
+    * Codec instances which are not reserved by a running job at the moment.
+    */
+    public int getAvailableCodecInstances() {
+        return codecPermits.availablePermits();
+    }
+
+    public DecoderPool getDecoderPool() {
+        return decoderPool;
+    }
+
+    private class MixJob extends FutureTask<MixerStats> {
+
+        private final AudioMixer mixer;
+
+        MixJob(final AudioMixer mixer, final int codecCount) {
+            super(new Callable<MixerStats>() {
+                @Override
+                public MixerStats call() throws Exception {
+                    codecPermits.acquire(codecCount);
+                    try{
+                        mixer.start();
+                        mixer.processSync();
+                        return mixer.getStats();
+                    }finally {
+                        // Codecs must be released before others may take their place
+                        mixer.release();
+                        codecPermits.release(codecCount);
+                    }
+                }
+            });
+            this.mixer = mixer;
+        }
+
+        @Override
+        public void run() {
+            super.run();
+            // A job which was cancelled before it could run still holds its inputs
+            mixer.release();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            // A running job sees it between two buffers, one which hasn't started fails to start
+            if(cancelled) mixer.stop();
+            return cancelled;
+        }
+    }
+}
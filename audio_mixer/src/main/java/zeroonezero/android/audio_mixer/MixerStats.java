@@ -0,0 +1,195 @@
+package zeroonezero.android.audio_mixer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters of a mixing job, so a slow job can be traced to the stage it spends its time in.
+ *
+ * Counters are cumulative from {@link AudioMixer#start()} and are updated by the mixing thread,
+ * decoding workers and codec callbacks, so they can be read from any thread during processing
+ * and remain readable after it has ended.
+ *
+ * Stage times are summed over all threads and they nest: {@link Stage#MIX} includes decoding and
+ * converting done in the mixing thread, and {@link Stage#OUTPUT} includes {@link Stage#ENCODE} and
+ * {@link Stage#MUX}. With background decoding, decoding and converting run besides mixing instead.
+ */
+public class MixerStats {
+
+    public enum Stage {
+        /** Getting decoded buffers from the decoder */
+        DECODE,
+        /** Resampling and remixing decoded values into the output format */
+        CONVERT,
+        /** Mixing blocks of inputs, including reading them */
+        MIX,
+        /** Writing mixed values into the output */
+        OUTPUT,
+        /** Feeding the encoder and taking its output */
+        ENCODE,
+        /** Writing encoded samples into the muxer */
+        MUX
+    }
+
+    private static final long MICROSECONDS_PER_SECOND = 1000000L;
+
+    private final AtomicLongArray stageNanos = new AtomicLongArray(Stage.values().length);
+    private volatile AtomicLongArray inputSamples = new AtomicLongArray(0);
+
+    private final AtomicLong codecBuffersDequeued = new AtomicLong();
+    private final AtomicLong emptyPolls = new AtomicLong();
+    private final AtomicLong allocationCount = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicLong outputSamples = new AtomicLong();
+
+    private volatile int sampleRate;
+    private volatile int channelCount;
+    private volatile long startNanos;
+    private volatile long endNanos;
+
+    /**
+     * Clears all counters for a new job. It is called from {@link AudioMixer#start()}.
+     */
+    public void reset(int inputCount, int sampleRate, int channelCount) {
+        for(int i = 0; i < stageNanos.length(); i++) stageNanos.set(i, 0);
+        inputSamples = new AtomicLongArray(inputCount);
+        codecBuffersDequeued.set(0);
+        emptyPolls.set(0);
+        allocationCount.set(0);
+        allocatedBytes.set(0);
+        outputSamples.set(0);
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        startNanos = System.nanoTime();
+        endNanos = 0;
+    }
+
+    /**
+     * Marks the end of processing, elapsed time stops there.
+     */
+    public void end() {
+        endNanos = System.nanoTime();
+    }
+
+    /************************ Recording ***********************/
+
+    public void addStageTime(Stage stage, long nanos) {
+        stageNanos.addAndGet(stage.ordinal(), nanos);
+    }
+
+    /**
+     * @param samples number of values, silence which is skipped counts too
+     */
+    public void addInputSamples(int inputIndex, long samples) {
+        AtomicLongArray counters = inputSamples;
+        if(inputIndex >= 0 && inputIndex < counters.length()) counters.addAndGet(inputIndex, samples);
+    }
+
+    public void addOutputSamples(long samples) {
+        outputSamples.addAndGet(samples);
+    }
+
+    /**
+     * Counts a codec input or output buffer which was dequeued.
+     */
+    public void addCodecBufferDequeued() {
+        codecBuffersDequeued.incrementAndGet();
+    }
+
+    /**
+     * Counts a poll of a codec which had no buffer to give.
+     */
+    public void addEmptyPoll() {
+        emptyPolls.incrementAndGet();
+    }
+
+    /**
+     * Counts an allocation made while processing.
+     *
+     * @param bytes size of the allocated buffer, 0 for small holder objects
+     */
+    public void addAllocation(long bytes) {
+        allocationCount.incrementAndGet();
+        allocatedBytes.addAndGet(bytes);
+    }
+
+    /************************ Reading ***********************/
+
+    public long getStageTimeNs(Stage stage) {
+        return stageNanos.get(stage.ordinal());
+    }
+
+    public int getInputCount() {
+        return inputSamples.length();
+    }
+
+    public long getInputSamples(int inputIndex) {
+        return inputSamples.get(inputIndex);
+    }
+
+    public long getOutputSamples() {
+        return outputSamples.get();
+    }
+
+    public long getCodecBuffersDequeued() {
+        return codecBuffersDequeued.get();
+    }
+
+    public long getEmptyPolls() {
+        return emptyPolls.get();
+    }
+
+    public long getAllocationCount() {
+        return allocationCount.get();
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /**
+     * Time since start, or the whole processing time once it has ended.
+     */
+    public long getElapsedNs() {
+        if(startNanos == 0) return 0;
+        return (endNanos != 0 ? endNanos : System.nanoTime()) - startNanos;
+    }
+
+    /**
+     * Duration of audio mixed so far.
+     */
+    public long getOutputDurationUs() {
+        if(sampleRate < 1 || channelCount < 1) return 0;
+        return getOutputSamples() / channelCount * MICROSECONDS_PER_SECOND / sampleRate;
+    }
+
+    /**
+     * How many times faster than realtime the job runs, e.g. 20 means a minute of audio takes 3 seconds.
+     */
+    public double getRealtimeFactor() {
+        long elapsedNs = getElapsedNs();
+        if(elapsedNs <= 0) return 0;
+        return getOutputDurationUs() * 1000.0 / elapsedNs;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("MixerStats{");
+        for(Stage stage : Stage.values()){
+            builder.append(stage.name().toLowerCase()).append("Ms=").append(getStageTimeNs(stage) / 1000000).append(", ");
+        }
+        builder.append("inputSamples=[");
+        for(int i = 0; i < getInputCount(); i++){
+            if(i > 0) builder.append(", ");
+            builder.append(getInputSamples(i));
+        }
+        builder.append("], outputSamples=").append(getOutputSamples())
+                .append(", codecBuffersDequeued=").append(getCodecBuffersDequeued())
+                .append(", emptyPolls=").append(getEmptyPolls())
+                .append(", allocations=").append(getAllocationCount())
+                .append(", allocatedBytes=").append(getAllocatedBytes())
+                .append(", realtimeFactor=").append(String.format("%.1f", getRealtimeFactor()))
+                .append('}');
+        return builder.toString();
+    }
+}
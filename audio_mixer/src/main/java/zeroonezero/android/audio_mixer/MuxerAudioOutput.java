@@ -0,0 +1,439 @@
+package zeroonezero.android.audio_mixer;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * An {@link AudioOutput} which encodes mixed values into AAC with MediaCodec
+ * and writes them into a MediaMuxer.
+ */
+public class MuxerAudioOutput implements AudioOutput {
+    private static final String TAG = MuxerAudioOutput.class.getSimpleName();
+
+    private static final int TIMEOUT_USEC = 0000;
+    private static final int BYTES_PER_SHORT = 2;
+    // AAC encodes frames of this many samples per channel, each encoded buffer holds one frame
+    private static final int AAC_FRAME_SIZE = 1024;
+
+    private MediaCodec encoder;
+    private AsyncCodecCallback encoderCallback;
+    private MediaMuxer muxer;
+    private final boolean isMuxerExternal;
+    private int muxerTrackIndex = -1;
+
+    /*
+    * An external muxer is started after our track has been added, so we can't write samples into it before that.
+    * Being ready doesn't mean it has been started: it is known only from 'notifyMuxerStarted()'.
+    * Our own muxer is started as soon as the track has been added.
+    */
+    private volatile boolean muxerStarted;
+
+    /*
+    * Values written while the track has been added but the muxer hasn't been started, and the encoder
+    * can't take them as its output can't be muxed. They are encoded first once the muxer has been started.
+    */
+    private short[] heldValues = new short[0];
+    private int heldSize;
+
+    /*
+    * If it is enabled, encoder runs in asynchronous mode and we wait for its buffers
+    * instead of polling it. It needs API 23, so lower versions always run in synchronous mode.
+    */
+    private boolean asyncCodecEnabled = true;
+
+    private int sampleRate;
+    private int channelCount;
+
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+
+    /*
+    * Encoder input buffer which is being filled. Its room is cut to whole AAC frames and it is queued
+    * when it is full, so the encoder gets whole frames in as few buffers as possible.
+    * Only the last buffer, which is queued in 'end()', may hold a part of a frame.
+    * Values are put with absolute writes from 'inputOffset' on, as a view of it would be created per buffer:
+    * from API 21 on, the encoder gives out a new ByteBuffer every time.
+    */
+    private int inputBufferIndex = -1;
+    private ByteBuffer inputBuffer;
+    private int inputOffset; // in bytes
+    private int inputSize; // in values
+    private int inputRoom; // in values
+
+    /*
+    * Presentation times are derived from these 64 bit counters of samples per channel,
+    * so they neither drift nor jitter. 'queuedFrames' counts what has been given to the encoder
+    * and 'muxedFrames' what has been written into the muxer.
+    */
+    private long queuedFrames;
+    private long muxedFrames;
+    private boolean encoderInputDone;
+    private boolean encoderOutputDone;
+
+    /*
+    * If it is set, time of writing into the muxer is recorded as muxing and the rest as encoding.
+    * 'muxTimeNs' is the muxing time so far, to take it out of the encoding time.
+    */
+    private MixerStats mixerStats;
+    private long muxTimeNs;
+
+    public MuxerAudioOutput(String outputFilePath) throws IOException {
+        this(outputFilePath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    }
+
+    /*
+    * private for now
+    */
+    private MuxerAudioOutput(String outputFilePath, int mediaMuxerOutputFormat) throws IOException {
+        muxer = new MediaMuxer(outputFilePath, mediaMuxerOutputFormat);
+        isMuxerExternal = false;
+    }
+
+    @TargetApi(26)
+    public MuxerAudioOutput(FileDescriptor fd) throws IOException {
+        this(fd, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    }
+
+    /*
+     * private for now
+     */
+    @TargetApi(26)
+    private MuxerAudioOutput(FileDescriptor fd, int mediaMuxerOutputFormat) throws IOException {
+        muxer = new MediaMuxer(fd, mediaMuxerOutputFormat);
+        isMuxerExternal = false;
+    }
+
+    /*
+    * Muxer starting, stopping, releasing must be handled externally.
+    * Muxer must be started after 'AudioMixer.start()' and before processing.
+    * If the output is used without a mixer, 'notifyMuxerStarted()' must be called after the muxer has been started.
+    */
+    public MuxerAudioOutput(MediaMuxer muxer) {
+        this.muxer = muxer;
+        isMuxerExternal = true;
+    }
+
+    public boolean isAsyncCodecEnabled() {
+        return asyncCodecEnabled;
+    }
+
+    /*
+    * It must be set before starting.
+    */
+    public void setAsyncCodecEnabled(boolean asyncCodecEnabled) {
+        this.asyncCodecEnabled = asyncCodecEnabled;
+    }
+
+    public void setMixerStats(MixerStats mixerStats) {
+        this.mixerStats = mixerStats;
+    }
+
+    private MediaFormat createOutputFormat(int sampleRate, int bitRate, int channelCount){
+        MediaFormat format = new MediaFormat();
+        format.setString(MediaFormat.KEY_MIME, MediaFormat.MIMETYPE_AUDIO_AAC);
+        format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        format.setInteger(MediaFormat.KEY_SAMPLE_RATE, sampleRate);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        format.setInteger(MediaFormat.KEY_CHANNEL_COUNT, channelCount);
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE,1024 * 256); // Needs to be large enough to avoid BufferOverflowException
+        return format;
+    }
+
+    @Override
+    public void start(int sampleRate, int channelCount, int bitRate) throws IOException {
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+
+        MediaFormat outputFormat = createOutputFormat(sampleRate, bitRate, channelCount);
+        encoder = MediaCodec.createEncoderByType(outputFormat.getString(MediaFormat.KEY_MIME));
+        if(asyncCodecEnabled && Build.VERSION.SDK_INT >= 23){
+            encoderCallback = new AsyncCodecCallback(TAG + "-encoder-callback");
+            encoderCallback.attach(encoder);
+        }
+        encoder.configure(outputFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        encoder.start();
+    }
+
+    /*
+    * Called when an external muxer has been started, the mixer calls it when processing starts.
+    * Samples are written into the muxer only after this.
+    */
+    public void notifyMuxerStarted() {
+        muxerStarted = true;
+    }
+
+    /*
+    * We must add the audio track to the muxer before it is started. As the starting of an external muxer
+    * is handled externally, the mixer feeds us values in 'AudioMixer.start()' till the track has been added.
+    */
+    @Override
+    public boolean isReady() {
+        return muxerTrackIndex > -1;
+    }
+
+    @Override
+    public void write(ShortBuffer buffer) {
+        final long startTime = System.nanoTime();
+        final long startMuxTime = muxTimeNs;
+
+        // Held values go first, so new ones are held behind them while the muxer hasn't been started
+        if(heldSize > 0){
+            if(isWaitingForMuxer()) hold(buffer);
+            else encodeHeldValues();
+        }
+        encode(buffer);
+
+        recordEncodeTime(startTime, startMuxTime);
+    }
+
+    private void encode(ShortBuffer buffer){
+        while(buffer.hasRemaining()){
+            final boolean hasInputBuffer = inputBufferIndex >= 0 || obtainInputBuffer();
+            if(hasInputBuffer){
+                final int count = Math.min(buffer.remaining(), inputRoom - inputSize);
+                int offset = inputOffset + inputSize * BYTES_PER_SHORT;
+                for(int i = 0; i < count; i++, offset += BYTES_PER_SHORT){
+                    inputBuffer.putShort(offset, buffer.get());
+                }
+                inputSize += count;
+
+                if(inputSize == inputRoom) queueInputBuffer(MediaCodec.BUFFER_FLAG_KEY_FRAME);
+            }
+
+            boolean outputHandled = muxEncoderOutput();
+
+            if(!hasInputBuffer && !outputHandled){
+                // Encoder won't give us a buffer till its output is muxed, which has to wait for the muxer
+                if(isWaitingForMuxer()){
+                    hold(buffer);
+                    break;
+                }
+                // Nothing to do till the encoder gives us a buffer
+                awaitEvent();
+            }
+        }
+    }
+
+    private boolean isWaitingForMuxer(){
+        return muxerTrackIndex > -1 && !muxerStarted;
+    }
+
+    private void hold(ShortBuffer buffer){
+        final int size = buffer.remaining();
+        if(heldValues.length < heldSize + size){
+            heldValues = Arrays.copyOf(heldValues, Math.max(heldSize + size, heldValues.length * 2));
+            if(mixerStats != null) mixerStats.addAllocation(heldValues.length * 2L);
+        }
+        buffer.get(heldValues, heldSize, size);
+        heldSize += size;
+    }
+
+    private void encodeHeldValues(){
+        ShortBuffer held = ShortBuffer.wrap(heldValues, 0, heldSize);
+        heldSize = 0;
+        encode(held);
+        heldValues = new short[0];
+    }
+
+    /*
+    * Encoding can't be finished while the muxer can't take samples.
+    */
+    private void checkMuxerStarted(){
+        if(isWaitingForMuxer()){
+            throw new IllegalStateException("Muxer has not been started, see notifyMuxerStarted().");
+        }
+    }
+
+    @Override
+    public void end() {
+        final long startTime = System.nanoTime();
+        final long startMuxTime = muxTimeNs;
+
+        checkMuxerStarted();
+        if(heldSize > 0) encodeHeldValues();
+
+        // Values left in the buffer being filled go with the end of stream
+        while(!encoderInputDone){
+            if(inputBufferIndex >= 0 || obtainInputBuffer()){
+                queueInputBuffer(MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                encoderInputDone = true;
+            }else if(!muxEncoderOutput()){
+                checkMuxerStarted();
+                awaitEvent();
+            }
+        }
+
+        while(!encoderOutputDone){
+            if(!muxEncoderOutput()){
+                checkMuxerStarted();
+                awaitEvent();
+            }
+        }
+
+        recordEncodeTime(startTime, startMuxTime);
+    }
+
+    private void recordEncodeTime(long startTime, long startMuxTime){
+        if(mixerStats != null){
+            long muxTime = muxTimeNs - startMuxTime;
+            mixerStats.addStageTime(MixerStats.Stage.ENCODE, System.nanoTime() - startTime - muxTime);
+            mixerStats.addStageTime(MixerStats.Stage.MUX, muxTime);
+        }
+    }
+
+    /*
+    * Returns false if the encoder has no input buffer for us now.
+    */
+    private boolean obtainInputBuffer(){
+        final int index = dequeueInputBuffer();
+        if(index < 0) return false;
+
+        inputBufferIndex = index;
+        inputBuffer = getInputBuffer(index);
+        inputOffset = inputBuffer.position();
+        inputSize = 0;
+        final int frameValues = AAC_FRAME_SIZE * channelCount;
+        final int room = inputBuffer.remaining() / BYTES_PER_SHORT;
+        // A buffer smaller than a frame can't be aligned, it is filled with whole samples then
+        inputRoom = room >= frameValues ? room - room % frameValues : room - room % channelCount;
+        return true;
+    }
+
+    private void queueInputBuffer(int flags){
+        final int values = inputSize;
+        encoder.queueInputBuffer(inputBufferIndex,
+                inputOffset,
+                values * BYTES_PER_SHORT,
+                queuedFrames * 1000000L / sampleRate,
+                flags);
+        queuedFrames += values / channelCount;
+        inputBufferIndex = -1;
+        inputBuffer = null;
+    }
+
+    private int dequeueInputBuffer(){
+        int index = encoderCallback != null ? encoderCallback.pollInputBuffer()
+                : encoder.dequeueInputBuffer(TIMEOUT_USEC);
+        countPoll(index);
+        return index;
+    }
+
+    private void countPoll(int bufferIndex){
+        if(mixerStats == null) return;
+        if(bufferIndex >= 0) mixerStats.addCodecBufferDequeued();
+        else if(bufferIndex == MediaCodec.INFO_TRY_AGAIN_LATER) mixerStats.addEmptyPoll();
+    }
+
+    private ByteBuffer getInputBuffer(int index){
+        ByteBuffer inputBuffer;
+        if (Build.VERSION.SDK_INT >= 21) {
+            inputBuffer = encoder.getInputBuffer(index);
+        }else{
+            inputBuffer = encoder.getInputBuffers()[index];
+            inputBuffer.clear();
+        }
+        return inputBuffer;
+    }
+
+    private void awaitEvent(){
+        if(encoderCallback != null) encoderCallback.awaitEvent();
+    }
+
+    /*
+    * Returns false if there was no output available
+    */
+    private boolean muxEncoderOutput(){
+        // Samples can't be written before the muxer is started
+        if(isWaitingForMuxer()) return false;
+
+        int outBufferId = encoderCallback != null ? encoderCallback.pollOutputBuffer(bufferInfo)
+                : encoder.dequeueOutputBuffer(bufferInfo, TIMEOUT_USEC);
+        countPoll(outBufferId);
+
+        if (outBufferId == MediaCodec.INFO_TRY_AGAIN_LATER) {
+            // no output available yet
+            return false;
+        } else if (outBufferId == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+
+        } else if (outBufferId == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+
+            synchronized (muxer){
+                muxerTrackIndex = muxer.addTrack(encoder.getOutputFormat());
+                // if muxer is not external, we can start it
+                if(!isMuxerExternal){
+                    muxer.start();
+                    muxerStarted = true;
+                }
+            }
+
+        } else if (outBufferId < 0) {
+
+            throw new RuntimeException("Unexpected result from decoder.dequeueOutputBuffer: " + outBufferId);
+
+        } else if (outBufferId >= 0) {
+            // Are we finished here?
+            if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                encoderOutputDone = true;
+            }
+
+            // Codec specific data is in the track's format already, it is not a sample
+            if((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) bufferInfo.size = 0;
+
+            if(bufferInfo.size > 0){
+                ByteBuffer encodedBuffer;
+                if (Build.VERSION.SDK_INT >= 21) {
+                    encodedBuffer = encoder.getOutputBuffer(outBufferId);
+                }else{
+                    encodedBuffer = encoder.getOutputBuffers()[outBufferId];
+                }
+
+                // Encoder's times may go back for the last buffer, so each frame is timed by the frames before it
+                bufferInfo.presentationTimeUs = muxedFrames * 1000000L / sampleRate;
+                muxedFrames += AAC_FRAME_SIZE;
+
+                final long muxStartTime = System.nanoTime();
+                synchronized (muxer){
+                    muxer.writeSampleData(muxerTrackIndex, encodedBuffer, bufferInfo);
+                }
+                muxTimeNs += System.nanoTime() - muxStartTime;
+            }
+            encoder.releaseOutputBuffer(outBufferId, false);
+        }
+        return true;
+    }
+
+    @Override
+    public void release() {
+        if(encoder != null){
+            // Encoder may not have been started
+            try{encoder.stop();} catch (Exception e){}
+            encoder.release();
+            encoder = null;
+            inputBuffer = null;
+        }
+
+        if(encoderCallback != null){
+            encoderCallback.release();
+            encoderCallback = null;
+        }
+
+        if(muxer != null){
+            if(!isMuxerExternal){
+                // Muxer may not has been ready to stop properly due to early stopping.
+                // So we should handle exception here
+                try{muxer.stop();} catch (Exception e){}
+                muxer.release();
+            }
+            muxer = null;
+        }
+    }
+}
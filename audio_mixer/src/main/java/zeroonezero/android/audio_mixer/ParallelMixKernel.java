@@ -0,0 +1,210 @@
+package zeroonezero.android.audio_mixer;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import zeroonezero.android.audio_mixer.input.AudioInput;
+
+/**
+ * Mixes a block of values from several {@link AudioInput}s at once.
+ *
+ * Every input is read as a whole block and summed into a float bus using gains,
+ * which are computed once per block from the input's volume. Inputs which share their values
+ * through {@link AudioInput#readView(int)} are read in place. The bus is converted back to shorts once
+ * and written to the output buffer in a single call.
+ *
+ * Without a limiter each input is divided by the number of inputs, so the sum can't clip.
+ * With a {@link LookaheadLimiter} inputs keep their level and the limiter keeps the sum under the ceiling,
+ * the output then lags the inputs and the rest of it comes from {@link #flush(ShortBuffer)}.
+ *
+ * Silence which inputs know about, see {@link AudioInput#getSilentShorts()}, is skipped
+ * instead of being read and summed. A block in which every input is silent costs only a fill.
+ */
+public class ParallelMixKernel {
+
+    private final int blockSize;
+    private final float[] bus;
+    private final short[] inputBlock;
+    private short[] outputBlock;
+    private float[] gains = new float[0];
+
+    private LookaheadLimiter limiter;
+
+    // Values taken from each input are counted in it if it is set
+    private MixerStats mixerStats;
+
+    public ParallelMixKernel(int blockSize) {
+        this.blockSize = blockSize;
+        bus = new float[blockSize];
+        inputBlock = new short[blockSize];
+        outputBlock = new short[blockSize];
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public void setMixerStats(MixerStats mixerStats) {
+        this.mixerStats = mixerStats;
+    }
+
+    public LookaheadLimiter getLimiter() {
+        return limiter;
+    }
+
+    /*
+    * It must be set before mixing. Null disables limiting, inputs are then divided by their count.
+    */
+    public void setLimiter(LookaheadLimiter limiter) {
+        this.limiter = limiter;
+        // Limiter may put out the values it holds back besides a whole block
+        outputBlock = new short[blockSize + (limiter != null ? limiter.getMaxBufferedSize() : 0)];
+    }
+
+    /**
+     * Mixes at most one block into the output buffer.
+     * The base input decides how many values are mixed, other inputs are read up to the same size.
+     * Inputs which have no remaining value are treated as silence.
+     *
+     * @param baseInput the input which decides the size of the block, it must be one of 'inputs'
+     * @param inputs all inputs to be mixed
+     * @param output the output buffer
+     * @return number of values put into the output buffer
+     */
+    public int mix(AudioInput baseInput, List<AudioInput> inputs, ShortBuffer output){
+        final int inputCount = inputs.size();
+        computeGains(inputs);
+
+        // Values held back by the limiter come out with this block, so they must fit too
+        int size = Math.min(output.remaining() - (limiter != null ? limiter.getBufferedSize() : 0), blockSize);
+        if(size <= 0) return 0;
+
+        // The base input initializes the bus, so we don't need to clear it
+        final int baseIndex = inputs.indexOf(baseInput);
+        final float baseGain = gains[baseIndex];
+        final int baseSilence = baseInput.getSilentShorts();
+        boolean silent = baseSilence > 0;
+        if(silent){
+            size = baseInput.skipSilence(Math.min(size, baseSilence));
+            Arrays.fill(bus, 0, size, 0f);
+        }else{
+            size = readBase(baseInput, baseGain, size);
+        }
+        if(size <= 0) return 0;
+        if(mixerStats != null) mixerStats.addInputSamples(baseIndex, size);
+
+        for(int j = 0; j < inputCount; j++){
+            AudioInput input = inputs.get(j);
+            if(input == baseInput) continue;
+            if(accumulate(input, j, gains[j], size)) silent = false;
+        }
+
+        if(limiter != null){
+            final int count = limiter.process(bus, 0, size, outputBlock, 0);
+            output.put(outputBlock, 0, count);
+            return count;
+        }
+
+        if(silent){
+            Arrays.fill(outputBlock, 0, size, (short) 0);
+        }else{
+            for(int i = 0; i < size; i++){
+                int value = Math.round(bus[i]);
+                if(value > Short.MAX_VALUE) value = Short.MAX_VALUE;
+                else if(value < Short.MIN_VALUE) value = Short.MIN_VALUE;
+                outputBlock[i] = (short) value;
+            }
+        }
+        output.put(outputBlock, 0, size);
+        return size;
+    }
+
+    /**
+     * Puts the values held back by the limiter into the output buffer, after the last block has been mixed.
+     *
+     * @return number of values put into the output buffer, which must have room for all of them
+     */
+    public int flush(ShortBuffer output){
+        if(limiter == null) return 0;
+        final int count = limiter.flush(outputBlock, 0);
+        output.put(outputBlock, 0, count);
+        return count;
+    }
+
+    /*
+    * Puts up to 'size' values of the base input into the accumulator and returns how many were put.
+    */
+    private int readBase(AudioInput baseInput, float baseGain, int size){
+        final ShortBuffer baseView = baseInput.readView(size);
+        if(baseView != null){
+            size = baseView.remaining();
+            final int position = baseView.position();
+            for(int i = 0; i < size; i++){
+                bus[i] = baseView.get(position + i) * baseGain;
+            }
+        }else{
+            size = baseInput.read(inputBlock, 0, size);
+            for(int i = 0; i < size; i++){
+                bus[i] = inputBlock[i] * baseGain;
+            }
+        }
+        return size;
+    }
+
+    /*
+    * Adds up to 'size' values of the input to the bus.
+    * Values are taken from the input's view where it has one, so they are not copied into a block first.
+    * Returns false if all of them were silent.
+    */
+    private boolean accumulate(AudioInput input, int inputIndex, float gain, int size){
+        boolean added = false;
+        int done = 0;
+        while(done < size && input.hasRemaining()){
+            final int silence = input.getSilentShorts();
+            if(silence > 0){
+                final int count = input.skipSilence(Math.min(size - done, silence));
+                if(count <= 0) break;
+                done += count;
+                continue;
+            }
+
+            added = true;
+            final ShortBuffer view = input.readView(size - done);
+            final int count;
+            if(view != null){
+                count = view.remaining();
+                final int position = view.position();
+                if(gain != 0){
+                    for(int i = 0; i < count; i++){
+                        bus[done + i] += view.get(position + i) * gain;
+                    }
+                }
+            }else{
+                count = input.read(inputBlock, 0, size - done);
+                if(gain != 0){
+                    for(int i = 0; i < count; i++){
+                        bus[done + i] += inputBlock[i] * gain;
+                    }
+                }
+            }
+            if(count <= 0) break;
+            done += count;
+        }
+        if(mixerStats != null) mixerStats.addInputSamples(inputIndex, done);
+        return added;
+    }
+
+    /*
+    * Without a limiter each input is divided by the number of inputs as before,
+    * but it is folded into the gain so the division isn't done per value.
+    */
+    private void computeGains(List<AudioInput> inputs){
+        final int inputCount = inputs.size();
+        if(gains.length != inputCount) gains = new float[inputCount];
+        final float divisor = limiter != null ? 1f : inputCount;
+        for(int j = 0; j < inputCount; j++){
+            gains[j] = inputs.get(j).getVolume() / divisor;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package zeroonezero.android.audio_mixer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import zeroonezero.android.audio_mixer.resample.ResamplingQuality;
+
+/**
+ * An on-disk cache of decoded and converted PCM, so sources which are mixed again and again
+ * are decoded only once.
+ *
+ * Each entry is a file of 16 bit little endian PCM. Entries are evicted in least recently used order
+ * when the total size exceeds the maximum size. Last use is kept as the file's modification time,
+ * so the order survives restarts and a directory may be shared by several caches.
+ * Uses are also kept in memory, as modification times can't be set on some filesystems
+ * and others keep only whole seconds.
+ *
+ * Temp files left behind by a process which was killed while writing an entry are deleted
+ * once they haven't been written for {@link #STALE_TEMP_AGE_MS}.
+ */
+public class PcmCache {
+
+    private static final String ENTRY_SUFFIX = ".pcm";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Temp files which haven't been written for this long are no longer written by anyone.
+     */
+    public static final long STALE_TEMP_AGE_MS = 60 * 60 * 1000;
+
+    private final File directory;
+    private final long maxSize;
+
+    /*
+    * Last uses of entries by this cache, least recently used first, by file name.
+    * Entries used at the same millisecond are in the order of use.
+    */
+    private final LinkedHashMap<String, Long> lastUses = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Cleared when setting a modification time fails, so we don't try again for every use
+    private boolean fileTimesSettable = true;
+
+    /**
+     * @param directory where entries are kept, it is created if it doesn't exist
+     * @param maxSize maximum total size of entries in bytes
+     */
+    public PcmCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Makes a key from the identity of a source and everything which changes the cached values.
+     */
+    public static String createKey(String sourceIdentity, long startTimeUs, long endTimeUs,
+                                   int sampleRate, int channelCount, ResamplingQuality quality) {
+        String key = sourceIdentity + '|' + startTimeUs + '-' + endTimeUs + '|' + sampleRate + 'x' + channelCount + '|' + quality;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(Charset.forName("UTF-8")));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for(byte b : digest) builder.append(String.format("%02x", b & 0xFF));
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every platform has SHA-1, but a readable key works too
+            return Integer.toHexString(key.hashCode()) + Integer.toHexString(key.length());
+        }
+    }
+
+    /**
+     * Returns the file of the entry, or null if there is no entry for the key.
+     */
+    public synchronized File get(String key) {
+        File file = entryFile(key);
+        if(!file.isFile()) return null;
+        touch(file);
+        return file;
+    }
+
+    /**
+     * Creates a file to write a new entry into. It is moved into the cache by {@link #put(String, File)}.
+     * Stale temp files are deleted first.
+     */
+    public synchronized File createTempFile() throws IOException {
+        if(!directory.isDirectory() && !directory.mkdirs()){
+            throw new IOException("Failed to create cache directory: " + directory);
+        }
+        deleteStaleTempFiles();
+        return File.createTempFile("entry", TEMP_SUFFIX, directory);
+    }
+
+    /**
+     * Moves the completely written temp file into the cache and evicts old entries if needed.
+     * A file which is open for reading remains readable even if it is evicted.
+     * A file larger than the maximum size isn't cached and evicts nothing.
+     *
+     * @return the file of the entry, or null if it isn't cached
+     */
+    public synchronized File put(String key, File tempFile) {
+        if(tempFile.length() > maxSize){
+            tempFile.delete();
+            return null;
+        }
+        File file = entryFile(key);
+        if(!tempFile.renameTo(file)){
+            tempFile.delete();
+            return null;
+        }
+        touch(file);
+        trimToSize();
+        return file;
+    }
+
+    public synchronized long getSize() {
+        long size = 0;
+        for(File file : listEntries()) size += file.length();
+        return size;
+    }
+
+    public synchronized void clear() {
+        for(File file : listEntries()) file.delete();
+        lastUses.clear();
+    }
+
+    private void touch(File file) {
+        final long now = System.currentTimeMillis();
+        lastUses.put(file.getName(), now);
+        if(fileTimesSettable && !file.setLastModified(now)) fileTimesSettable = false;
+    }
+
+    private void trimToSize() {
+        deleteStaleTempFiles();
+
+        File[] entries = listEntries();
+        long size = 0;
+        Set<String> names = new HashSet<>(entries.length * 2);
+        for(File file : entries){
+            size += file.length();
+            names.add(file.getName());
+        }
+        // Forget entries which others have deleted
+        lastUses.keySet().retainAll(names);
+        if(size <= maxSize) return;
+
+        // Our uses by name, as indices in the order of use and times. Iterating doesn't change the order, get() would.
+        Map<String, Integer> useIndices = new HashMap<>();
+        Map<String, Long> useTimes = new HashMap<>();
+        int index = 0;
+        for(Map.Entry<String, Long> use : lastUses.entrySet()){
+            useIndices.put(use.getKey(), index++);
+            useTimes.put(use.getKey(), use.getValue());
+        }
+
+        // Least recently used first, either by us or as the file time tells for entries used only by others.
+        // Entries with the same time are in the order we used them.
+        final long[] times = new long[entries.length];
+        final int[] indices = new int[entries.length];
+        Integer[] order = new Integer[entries.length];
+        for(int i = 0; i < entries.length; i++){
+            String name = entries[i].getName();
+            Long useTime = useTimes.get(name);
+            times[i] = useTime == null ? entries[i].lastModified() : Math.max(useTime, entries[i].lastModified());
+            Integer useIndex = useIndices.get(name);
+            indices[i] = useIndex == null ? -1 : useIndex;
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int result = Long.compare(times[a], times[b]);
+                return result != 0 ? result : Integer.compare(indices[a], indices[b]);
+            }
+        });
+
+        for(int i = 0; i < order.length && size > maxSize; i++){
+            File file = entries[order[i]];
+            long length = file.length();
+            if(file.delete()){
+                size -= length;
+                lastUses.remove(file.getName());
+            }
+        }
+    }
+
+    /*
+    * Temp files of a killed process would never be moved into the cache or deleted,
+    * and as they aren't entries they don't count for the maximum size either.
+    */
+    private void deleteStaleTempFiles() {
+        File[] files = directory.listFiles();
+        if(files == null) return;
+
+        final long staleBefore = System.currentTimeMillis() - STALE_TEMP_AGE_MS;
+        for(File file : files){
+            if(file.getName().endsWith(TEMP_SUFFIX) && file.lastModified() < staleBefore) file.delete();
+        }
+    }
+
+    private File[] listEntries() {
+        File[] files = directory.listFiles();
+        if(files == null) return new File[0];
+
+        int count = 0;
+        for(File file : files){
+            if(file.getName().endsWith(ENTRY_SUFFIX)) files[count++] = file;
+        }
+        return Arrays.copyOf(files, count);
+    }
+
+    private File entryFile(String key) {
+        return new File(directory, key + ENTRY_SUFFIX);
+    }
+}
@@ -0,0 +1,65 @@
+package zeroonezero.android.audio_mixer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes an audio source into 16 bit PCM, chunk by chunk.
+ * See {@link AudioDecoder} for MediaCodec based decoding and {@link WavDecoder}
+ * for uncompressed sources which don't need a codec at all.
+ *
+ * It is independent of Android, so a decoder may run on a plain JVM too.
+ */
+public interface PcmDecoder {
+
+    long getDurationUs();
+
+    int getSampleRate();
+
+    int getBitrateRate();
+
+    int getChannelCount();
+
+    long getStartTimeUs();
+
+    long getEndTimeUs();
+
+    boolean isLoopingEnabled();
+
+    boolean isDecodingDone();
+
+    void setStartTimeUs(long startTimeUs);
+
+    void setEndTimeUs(long endTimeUs);
+
+    void setLoopingEnabled(boolean loopingEnabled);
+
+    void start();
+
+    /**
+     * Decodes the next chunk. Index of the returned data is negative if decoding is done.
+     * The byte buffer holds native 16 bit PCM values between its position and limit
+     * and it is valid till {@link #releaseOutputBuffer(int)} is called.
+     * The returned data itself may be reused by the next call.
+     */
+    DecodedBufferData decode();
+
+    /**
+     * @param index last decoded output buffer's index
+     *
+     * This method must be called each time after decoding and and using the ByteBuffer sample
+     * */
+    void releaseOutputBuffer(int index);
+
+    void stop();
+
+    void release();
+
+    class DecodedBufferData{
+        public ByteBuffer byteBuffer = null;
+        public int index = -1;
+        public int size = 0;
+        public long presentationTimeUs = 0;
+        public int flags = 0;
+        public int offset = 0;
+    }
+}
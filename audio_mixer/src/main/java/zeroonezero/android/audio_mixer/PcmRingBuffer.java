@@ -0,0 +1,230 @@
+package zeroonezero.android.audio_mixer;
+
+import java.nio.ShortBuffer;
+
+/**
+ * A bounded ring buffer of PCM values between one producer thread and one consumer thread.
+ *
+ * Producer blocks while the ring is full and consumer blocks while it is empty,
+ * so the capacity of the ring gives the back-pressure.
+ * Values are copied in bulk and positions are published without the lock.
+ * The lock is taken only by a side which has to wait, and by the other side to wake it up while it waits.
+ */
+public class PcmRingBuffer {
+
+    private final short[] data;
+    private final int capacity;
+    private final Object lock = new Object();
+
+    /*
+    * Total number of values written and read. Index in 'data' is 'position % capacity'.
+    * Only the producer changes 'writePosition' and only the consumer changes 'readPosition'.
+    */
+    private volatile long writePosition;
+    private volatile long readPosition;
+
+    // Producer has no more value
+    private volatile boolean closed;
+    // Consumer doesn't want any more value
+    private volatile boolean aborted;
+    private volatile Throwable error;
+
+    /*
+    * Set by a side while it waits on the lock. A side sets its flag before it checks the positions again
+    * and the other side publishes its position before it checks the flag, so one of them sees the other.
+    */
+    private volatile boolean consumerWaiting;
+    private volatile boolean producerWaiting;
+
+    public PcmRingBuffer(int capacity) {
+        if(capacity < 1) throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        this.capacity = capacity;
+        data = new short[capacity];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int available() {
+        return (int) (writePosition - readPosition);
+    }
+
+    /**
+     * Writes all remaining values of the buffer, blocking while the ring is full.
+     *
+     * @return false if the consumer has aborted, so there is no point in producing more
+     */
+    public boolean write(ShortBuffer src) {
+        while(src.hasRemaining()){
+            int space = awaitSpace();
+            if(space < 0) return false;
+
+            final long position = writePosition;
+            final int index = (int) (position % capacity);
+            final int count = Math.min(src.remaining(), Math.min(space, capacity - index));
+            src.get(data, index, count);
+            publishWrite(position + count);
+        }
+        return true;
+    }
+
+    /**
+     * Same as {@link #write(ShortBuffer)} but from an array.
+     */
+    public boolean write(short[] src, int off, int len) {
+        int written = 0;
+        while(written < len){
+            int space = awaitSpace();
+            if(space < 0) return false;
+
+            final long position = writePosition;
+            final int index = (int) (position % capacity);
+            final int count = Math.min(len - written, Math.min(space, capacity - index));
+            System.arraycopy(src, off + written, data, index, count);
+            written += count;
+            publishWrite(position + count);
+        }
+        return true;
+    }
+
+    /**
+     * Reads up to 'len' values, blocking till 'len' values are read or the producer has closed.
+     *
+     * @return number of values read. Fewer than 'len' only if the ring is closed and empty.
+     */
+    public int read(short[] dst, int off, int len) {
+        int read = 0;
+        while(read < len){
+            // Values already read are returned first, a producer's error is thrown by the next call
+            if(read > 0 && closed && available() == 0) break;
+            if(!awaitReadable()) break;
+
+            final long position = readPosition;
+            final int index = (int) (position % capacity);
+            final int count = Math.min(len - read, Math.min(available(), capacity - index));
+            System.arraycopy(data, index, dst, off + read, count);
+            read += count;
+            publishRead(position + count);
+        }
+        return read;
+    }
+
+    /**
+     * Same as {@link #read(short[], int, int)} but into the remaining space of a buffer.
+     *
+     * @return number of values read
+     */
+    public int read(ShortBuffer dst) {
+        int read = 0;
+        while(dst.hasRemaining()){
+            // Values already read are returned first, a producer's error is thrown by the next call
+            if(read > 0 && closed && available() == 0) break;
+            if(!awaitReadable()) break;
+
+            final long position = readPosition;
+            final int index = (int) (position % capacity);
+            final int count = Math.min(dst.remaining(), Math.min(available(), capacity - index));
+            dst.put(data, index, count);
+            read += count;
+            publishRead(position + count);
+        }
+        return read;
+    }
+
+    /**
+     * Blocks till there is a value to read or the producer has closed.
+     *
+     * @return true if there is a value to read
+     */
+    public boolean awaitReadable() {
+        if(available() > 0) return true;
+        synchronized (lock){
+            consumerWaiting = true;
+            try{
+                while(available() == 0 && !closed){
+                    waitOnLock();
+                }
+            }finally {
+                consumerWaiting = false;
+            }
+        }
+        if(available() == 0 && error != null){
+            throw new RuntimeException("Producer of ring buffer failed", error);
+        }
+        return available() > 0;
+    }
+
+    /**
+     * Called by the producer when it has no more value.
+     */
+    public void close() {
+        synchronized (lock){
+            closed = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Called by the producer when it fails. The error is thrown to the consumer after the remaining values.
+     */
+    public void close(Throwable error) {
+        this.error = error;
+        close();
+    }
+
+    /**
+     * Called by the consumer when it doesn't want any more value. It unblocks the producer.
+     */
+    public void abort() {
+        synchronized (lock){
+            aborted = true;
+            lock.notifyAll();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private int awaitSpace() {
+        int space = capacity - available();
+        if(space > 0 && !aborted) return space;
+        synchronized (lock){
+            producerWaiting = true;
+            try{
+                while((space = capacity - available()) == 0 && !aborted){
+                    waitOnLock();
+                }
+            }finally {
+                producerWaiting = false;
+            }
+        }
+        return aborted ? -1 : space;
+    }
+
+    private void publishWrite(long position) {
+        writePosition = position;
+        if(consumerWaiting) wakeUp();
+    }
+
+    private void publishRead(long position) {
+        readPosition = position;
+        if(producerWaiting) wakeUp();
+    }
+
+    private void wakeUp() {
+        synchronized (lock){
+            lock.notifyAll();
+        }
+    }
+
+    private void waitOnLock() {
+        try {
+            lock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting on ring buffer", e);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package zeroonezero.android.audio_mixer;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Short values of decoded buffers, without creating a view for every buffer which is decoded.
+ *
+ * Before API 21 and for PCM decoders a buffer index is given out with the same ByteBuffer again and again,
+ * so a view of it is made once and then moved to the position and limit the buffer has at the moment.
+ * From API 21 on, MediaCodec gives out a new ByteBuffer on every call, a view of it would be used once.
+ * Values of such buffers are copied with absolute reads into an array which is reused instead,
+ * so neither case allocates once the array is large enough.
+ */
+public class ShortViewCache {
+
+    private static final int BYTES_PER_SHORT = 2;
+    // Codecs have a few buffers, larger indices aren't kept in case a decoder uses them for something else
+    private static final int MAX_CACHED_INDEX = 64;
+
+    /*
+    * Last buffer of each index and its view. The view is made when the same buffer comes for the second time.
+    */
+    private ByteBuffer[] buffers = new ByteBuffer[0];
+    private ShortBuffer[] views = new ShortBuffer[0];
+
+    /*
+    * Values of buffers which have no view are copied here
+    */
+    private short[] copiedValues = new short[0];
+    private ShortBuffer copiedBuffer = ShortBuffer.wrap(copiedValues);
+
+    // New views and arrays are counted as allocations in it if it is set
+    private MixerStats mixerStats;
+
+    public void setMixerStats(MixerStats mixerStats) {
+        this.mixerStats = mixerStats;
+    }
+
+    /**
+     * Returns the values between the buffer's position and limit, like {@link ByteBuffer#asShortBuffer()}.
+     * They are valid till values are asked for again. The returned buffer must only be read.
+     *
+     * @param index index of the buffer in its codec
+     */
+    public ShortBuffer get(int index, ByteBuffer byteBuffer) {
+        if(index < 0 || index >= MAX_CACHED_INDEX) return copy(byteBuffer);
+
+        if(index >= views.length){
+            buffers = Arrays.copyOf(buffers, index + 1);
+            views = Arrays.copyOf(views, index + 1);
+        }
+        if(buffers[index] != byteBuffer){
+            buffers[index] = byteBuffer;
+            views[index] = null;
+            return copy(byteBuffer);
+        }
+
+        ShortBuffer view = views[index];
+        if(view == null){
+            // View of the whole buffer, so it can be moved anywhere in it. Duplicate loses the byte order.
+            ByteBuffer whole = byteBuffer.duplicate().order(byteBuffer.order());
+            whole.clear();
+            view = whole.asShortBuffer();
+            views[index] = view;
+            if(mixerStats != null) mixerStats.addAllocation(0);
+        }
+        view.limit(byteBuffer.limit() / BYTES_PER_SHORT);
+        view.position(byteBuffer.position() / BYTES_PER_SHORT);
+        return view;
+    }
+
+    private ShortBuffer copy(ByteBuffer byteBuffer) {
+        final int size = byteBuffer.remaining() / BYTES_PER_SHORT;
+        if(copiedValues.length < size){
+            copiedValues = new short[size];
+            copiedBuffer = ShortBuffer.wrap(copiedValues);
+            if(mixerStats != null) mixerStats.addAllocation(size * (long) BYTES_PER_SHORT);
+        }
+        // Absolute reads take the buffer's byte order and don't create anything
+        final int position = byteBuffer.position();
+        for(int i = 0; i < size; i++){
+            copiedValues[i] = byteBuffer.getShort(position + i * BYTES_PER_SHORT);
+        }
+        copiedBuffer.clear();
+        copiedBuffer.limit(size);
+        return copiedBuffer;
+    }
+
+    /*
+    * Drops all views, e.g. when the codec is released.
+    */
+    public void clear() {
+        Arrays.fill(buffers, null);
+        Arrays.fill(views, null);
+    }
+}
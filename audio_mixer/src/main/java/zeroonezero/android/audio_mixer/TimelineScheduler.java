@@ -0,0 +1,71 @@
+package zeroonezero.android.audio_mixer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import zeroonezero.android.audio_mixer.input.AudioInput;
+
+/**
+ * Activates inputs shortly before they become audible and deactivates them as soon as they are done,
+ * so heavy resources like codecs are held only by inputs which overlap in time.
+ *
+ * Each input is placed on the output timeline in values. In parallel mixing it starts at its own silent start,
+ * in sequential mixing after the durations of all inputs before it.
+ */
+public class TimelineScheduler {
+
+    private final List<AudioInput> pendingInputs = new ArrayList<>();
+    private final List<Long> activationPositions = new ArrayList<>();
+    private final List<AudioInput> activeInputs = new ArrayList<>();
+    private final long leadShorts;
+
+    /**
+     * @param leadShorts how many values ahead of its start an input is activated
+     */
+    public TimelineScheduler(long leadShorts) {
+        this.leadShorts = leadShorts;
+    }
+
+    /**
+     * @param input a started input
+     * @param startPosition position of the input's first audible value in the output, in values
+     */
+    public void add(AudioInput input, long startPosition) {
+        pendingInputs.add(input);
+        activationPositions.add(startPosition - leadShorts);
+    }
+
+    /**
+     * Activates inputs which start within the lead of 'position' and deactivates the ones which are done.
+     *
+     * @param position number of values mixed so far
+     */
+    public void update(long position) {
+        for(int i = activeInputs.size() - 1; i >= 0; i--){
+            AudioInput input = activeInputs.get(i);
+            if(!input.hasRemaining()){
+                input.deactivate();
+                activeInputs.remove(i);
+            }
+        }
+
+        for(int i = pendingInputs.size() - 1; i >= 0; i--){
+            if(activationPositions.get(i) <= position){
+                AudioInput input = pendingInputs.remove(i);
+                activationPositions.remove(i);
+                input.activate();
+                activeInputs.add(input);
+            }
+        }
+    }
+
+    public int getActiveInputCount() {
+        return activeInputs.size();
+    }
+
+    public void clear() {
+        pendingInputs.clear();
+        activationPositions.clear();
+        activeInputs.clear();
+    }
+}
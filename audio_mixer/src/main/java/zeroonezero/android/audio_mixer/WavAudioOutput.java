@@ -0,0 +1,163 @@
+package zeroonezero.android.audio_mixer;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An {@link AudioOutput} which writes mixed values into a 16 bit WAV file without any encoding,
+ * or into a raw PCM file if header is disabled.
+ * Values are collected in a direct buffer and written to the file channel in large chunks.
+ * It is meant for intermediate renders which are mixed again later, as there is no lossy round trip.
+ */
+public class WavAudioOutput implements AudioOutput {
+
+    private static final int HEADER_SIZE = 44;
+    private static final int BITS_PER_SAMPLE = 16;
+    private static final int BUFFER_SIZE = 64 * 1024; // in bytes
+
+    private final FileChannel channel;
+    // We don't close channels of file descriptors, as those are owned by the caller
+    private final boolean ownsChannel;
+    private final boolean headerEnabled;
+
+    private int sampleRate;
+    private int channelCount;
+
+    /*
+    * 'shortBuffer' is a view of 'byteBuffer', values are put into it
+    * and written to the channel when it is full.
+    */
+    private ByteBuffer byteBuffer;
+    private ShortBuffer shortBuffer;
+    private long dataSize;
+    private long headerPosition;
+
+    public WavAudioOutput(String outputFilePath) throws IOException {
+        this(outputFilePath, true);
+    }
+
+    /*
+    * If 'headerEnabled' is false, raw 16 bit little endian PCM is written.
+    */
+    public WavAudioOutput(String outputFilePath, boolean headerEnabled) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(outputFilePath, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+        ownsChannel = true;
+        this.headerEnabled = headerEnabled;
+    }
+
+    /*
+    * File descriptor must be opened for writing and it is not closed on release.
+    * Writing starts at the current position of the file descriptor.
+    */
+    public WavAudioOutput(FileDescriptor fd, boolean headerEnabled) {
+        channel = new FileOutputStream(fd).getChannel();
+        ownsChannel = false;
+        this.headerEnabled = headerEnabled;
+    }
+
+    @Override
+    public void start(int sampleRate, int channelCount, int bitRate) throws IOException {
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+
+        byteBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        shortBuffer = byteBuffer.asShortBuffer();
+        dataSize = 0;
+
+        // Sizes are not known yet, header is written again at the end
+        if(headerEnabled){
+            headerPosition = channel.position();
+            writeHeader();
+            channel.position(headerPosition + HEADER_SIZE);
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        return true;
+    }
+
+    @Override
+    public void write(ShortBuffer buffer) {
+        while(buffer.hasRemaining()){
+            if(!shortBuffer.hasRemaining()) flush();
+
+            final int count = Math.min(buffer.remaining(), shortBuffer.remaining());
+            final int limit = buffer.limit();
+            buffer.limit(buffer.position() + count);
+            shortBuffer.put(buffer);
+            buffer.limit(limit);
+        }
+    }
+
+    private void flush() {
+        byteBuffer.clear();
+        byteBuffer.limit(shortBuffer.position() * 2);
+        try {
+            while(byteBuffer.hasRemaining()){
+                dataSize += channel.write(byteBuffer);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write PCM", e);
+        }
+        shortBuffer.clear();
+    }
+
+    @Override
+    public void end() {
+        flush();
+        if(headerEnabled){
+            try {
+                writeHeader();
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to write WAV header", e);
+            }
+        }
+    }
+
+    /*
+    * Header is written at 'headerPosition', leaving the current position of the channel unchanged.
+    */
+    private void writeHeader() throws IOException {
+        // Sizes are limited to 32 bits in WAV
+        final long riffSize = Math.min(HEADER_SIZE - 8 + dataSize, 0xFFFFFFFFL);
+        final long chunkSize = Math.min(dataSize, 0xFFFFFFFFL);
+        final int blockAlign = channelCount * BITS_PER_SAMPLE / 8;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[]{'R', 'I', 'F', 'F'}).putInt((int) riffSize);
+        header.put(new byte[]{'W', 'A', 'V', 'E'});
+        header.put(new byte[]{'f', 'm', 't', ' '}).putInt(16)
+                .putShort((short) WavHeader.FORMAT_PCM)
+                .putShort((short) channelCount)
+                .putInt(sampleRate)
+                .putInt(sampleRate * blockAlign)
+                .putShort((short) blockAlign)
+                .putShort((short) BITS_PER_SAMPLE);
+        header.put(new byte[]{'d', 'a', 't', 'a'}).putInt((int) chunkSize);
+        header.flip();
+
+        while(header.hasRemaining()) channel.write(header, headerPosition + header.position());
+    }
+
+    public long getDataSize() {
+        return dataSize;
+    }
+
+    @Override
+    public void release() {
+        byteBuffer = null;
+        shortBuffer = null;
+        if(ownsChannel){
+            try { channel.close(); } catch (IOException e) { }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package zeroonezero.android.audio_mixer;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link PcmDecoder} for WAV files and headerless raw PCM, written in plain Java.
+ * PCM is read straight from the file, so no MediaExtractor or MediaCodec is involved.
+ * 16 bit PCM is passed as it is, other sample formats are converted to 16 bit.
+ */
+public class WavDecoder implements PcmDecoder {
+
+    private static final int FRAMES_PER_BUFFER = 4096;
+    private static final long MICROSECONDS_PER_SECOND = 1000000L;
+
+    private final FileChannel channel;
+    // We don't close channels of file descriptors, as those are owned by the caller
+    private final boolean ownsChannel;
+    private final WavHeader header;
+
+    private long startTimeUs;
+    private long endTimeUs;
+    private boolean loopingEnabled;
+    private boolean decodingDone;
+
+    /*
+    * Byte positions in the data chunk
+    */
+    private long startPosition;
+    private long endPosition;
+    private long position;
+
+    private final ByteBuffer readBuffer;
+    private final ByteBuffer convertedBuffer;
+    private final DecodedBufferData data = new DecodedBufferData();
+
+    public WavDecoder(String sourcePath) throws IOException {
+        this(new RandomAccessFile(sourcePath, "r").getChannel(), true, (long[]) null);
+    }
+
+    public WavDecoder(FileDescriptor fd) throws IOException {
+        this(new FileInputStream(fd).getChannel(), false, (long[]) null);
+    }
+
+    public WavDecoder(FileDescriptor fd, long offset, long length) throws IOException {
+        this(new FileInputStream(fd).getChannel(), false, new long[]{offset, length});
+    }
+
+    /**
+     * Decodes headerless 16 bit little endian PCM.
+     */
+    public WavDecoder(String sourcePath, int sampleRate, int channelCount) throws IOException {
+        this(new RandomAccessFile(sourcePath, "r").getChannel(), true,
+                sampleRate, channelCount);
+    }
+
+    private WavDecoder(FileChannel channel, boolean ownsChannel, int sampleRate, int channelCount) throws IOException {
+        this(channel, ownsChannel, WavHeader.rawPcm(sampleRate, channelCount, 0, channel.size()));
+    }
+
+    private WavDecoder(FileChannel channel, boolean ownsChannel, long[] region) throws IOException {
+        this(channel, ownsChannel, readHeader(channel, ownsChannel, region));
+    }
+
+    public WavDecoder(FileChannel channel, boolean ownsChannel, WavHeader header) {
+        this.channel = channel;
+        this.ownsChannel = ownsChannel;
+        this.header = header;
+        if (!header.isSupported()) {
+            release();
+            throw new UnsupportedOperationException("WAV format (" + header.audioFormat + ", "
+                    + header.bitsPerSample + " bits) not supported.");
+        }
+
+        readBuffer = ByteBuffer.allocateDirect(FRAMES_PER_BUFFER * header.blockAlign)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        convertedBuffer = header.isPcm16() ? null : ByteBuffer.allocateDirect(FRAMES_PER_BUFFER * header.channelCount * 2)
+                .order(ByteOrder.nativeOrder());
+
+        startTimeUs = 0;
+        endTimeUs = getDurationUs();
+    }
+
+    private static WavHeader readHeader(FileChannel channel, boolean ownsChannel, long[] region) throws IOException {
+        long offset = region != null ? region[0] : 0;
+        long length = region != null && region[1] >= 0 ? region[1] : channel.size() - offset;
+        WavHeader header = WavHeader.read(channel, offset, length);
+        if (header == null) {
+            if (ownsChannel) channel.close();
+            throw new IOException("Source is not a WAV file");
+        }
+        return header;
+    }
+
+    /**
+     * Returns the header if the file is a WAV file we can decode, otherwise null.
+     */
+    public static WavHeader sniff(String sourcePath) {
+        if (sourcePath == null || !new File(sourcePath).isFile()) return null;
+        try (RandomAccessFile file = new RandomAccessFile(sourcePath, "r")) {
+            return supportedOrNull(WavHeader.read(file.getChannel(), 0, file.length()));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Same as {@link #sniff(String)} for a region of a file descriptor. The descriptor is not closed.
+     */
+    public static WavHeader sniff(FileDescriptor fd, long offset, long length) {
+        try {
+            FileChannel channel = new FileInputStream(fd).getChannel();
+            if (length < 0) length = channel.size() - offset;
+            return supportedOrNull(WavHeader.read(channel, offset, length));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static WavHeader supportedOrNull(WavHeader header) {
+        return header != null && header.isSupported() ? header : null;
+    }
+
+    public WavHeader getHeader() {
+        return header;
+    }
+
+    @Override
+    public long getDurationUs() {
+        return header.getDurationUs();
+    }
+
+    @Override
+    public int getSampleRate() {
+        return header.sampleRate;
+    }
+
+    @Override
+    public int getBitrateRate() {
+        return header.sampleRate * header.channelCount * header.bitsPerSample;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return header.channelCount;
+    }
+
+    @Override
+    public long getStartTimeUs() {
+        return startTimeUs;
+    }
+
+    @Override
+    public long getEndTimeUs() {
+        return endTimeUs;
+    }
+
+    @Override
+    public boolean isLoopingEnabled() {
+        return loopingEnabled;
+    }
+
+    @Override
+    public boolean isDecodingDone() {
+        return decodingDone;
+    }
+
+    @Override
+    public void setStartTimeUs(long startTimeUs) {
+        this.startTimeUs = startTimeUs;
+
+        long durationUs = getDurationUs();
+        if(startTimeUs < 0) this.startTimeUs = 0;
+        else if(startTimeUs > durationUs) this.startTimeUs = durationUs;
+    }
+
+    @Override
+    public void setEndTimeUs(long endTimeUs) {
+        this.endTimeUs = endTimeUs;
+
+        long durationUs = getDurationUs();
+        if(endTimeUs < 0) this.endTimeUs = 0;
+        else if(endTimeUs > durationUs) this.endTimeUs = durationUs;
+    }
+
+    @Override
+    public void setLoopingEnabled(boolean loopingEnabled) {
+        this.loopingEnabled = loopingEnabled;
+    }
+
+    @Override
+    public void start() {
+        if(startTimeUs > endTimeUs){
+            throw new RuntimeException("StartTimeUs("+startTimeUs+") must be less than or equal to EndTimeUs("+endTimeUs+")");
+        }
+
+        startPosition = usToFrames(startTimeUs) * header.blockAlign;
+        // Duration is rounded down to microseconds, so we don't want to lose the last frame
+        endPosition = endTimeUs >= getDurationUs() ? header.dataSize
+                : Math.min(usToFrames(endTimeUs) * header.blockAlign, header.dataSize);
+        position = startPosition;
+        decodingDone = false;
+    }
+
+    private long usToFrames(long us) {
+        return us * header.sampleRate / MICROSECONDS_PER_SECOND;
+    }
+
+    @Override
+    public DecodedBufferData decode() {
+        data.index = -1;
+        data.size = 0;
+        data.byteBuffer = null;
+        if(decodingDone) return data;
+
+        if(position >= endPosition){
+            if(loopingEnabled && endPosition > startPosition){
+                position = startPosition;
+            }else{
+                decodingDone = true;
+                return data;
+            }
+        }
+
+        final int bytes = (int) Math.min(readBuffer.capacity(), endPosition - position);
+        readBuffer.clear();
+        readBuffer.limit(bytes);
+        try {
+            while(readBuffer.hasRemaining()){
+                int read = channel.read(readBuffer, header.dataOffset + position + readBuffer.position());
+                if(read < 0) break;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read WAV data", e);
+        }
+        readBuffer.flip();
+        // File may be shorter than its header says
+        readBuffer.limit(readBuffer.limit() - readBuffer.limit() % header.blockAlign);
+        if(!readBuffer.hasRemaining()){
+            endPosition = position;
+            return decode();
+        }
+
+        data.presentationTimeUs = position / header.blockAlign * MICROSECONDS_PER_SECOND / header.sampleRate;
+        position += readBuffer.remaining();
+
+        data.byteBuffer = header.isPcm16() ? readBuffer : convert(readBuffer);
+        data.index = 0;
+        data.offset = 0;
+        data.size = data.byteBuffer.remaining();
+        data.flags = 0;
+        return data;
+    }
+
+    /*
+    * Converts other sample formats to 16 bit PCM
+    */
+    private ByteBuffer convert(ByteBuffer input) {
+        ByteBuffer output = convertedBuffer;
+        output.clear();
+        final int bytesPerSample = header.bitsPerSample / 8;
+        while(input.remaining() >= bytesPerSample){
+            short value;
+            if(header.audioFormat == WavHeader.FORMAT_IEEE_FLOAT){
+                float sample = input.getFloat() * Short.MAX_VALUE;
+                value = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(sample)));
+            }else if(bytesPerSample == 1){
+                value = (short) (((input.get() & 0xFF) - 128) << 8);
+            }else if(bytesPerSample == 3){
+                input.get(); // least significant byte is dropped
+                value = input.getShort();
+            }else{
+                value = (short) (input.getInt() >> 16);
+            }
+            output.putShort(value);
+        }
+        output.flip();
+        return output;
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index) {
+        // Buffers are reused, nothing to release
+    }
+
+    @Override
+    public void stop() {
+        decodingDone = true;
+    }
+
+    @Override
+    public void release() {
+        stop();
+        if(ownsChannel){
+            try { channel.close(); } catch (IOException e) { }
+        }
+    }
+}
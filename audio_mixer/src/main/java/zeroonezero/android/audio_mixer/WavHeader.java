@@ -0,0 +1,133 @@
+package zeroonezero.android.audio_mixer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Format and location of PCM data in a WAV (RIFF/WAVE) file, or of headerless raw PCM.
+ */
+public class WavHeader {
+
+    public static final int FORMAT_PCM = 1;
+    public static final int FORMAT_IEEE_FLOAT = 3;
+    private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private static final int RIFF = 0x46464952; // "RIFF" in little endian
+    private static final int WAVE = 0x45564157; // "WAVE"
+    private static final int FMT = 0x20746d66;  // "fmt "
+    private static final int DATA = 0x61746164; // "data"
+
+    public final int audioFormat;
+    public final int channelCount;
+    public final int sampleRate;
+    public final int bitsPerSample;
+    public final int blockAlign;
+
+    /*
+    * Offset of PCM data from the start of the channel and its size in bytes
+    */
+    public final long dataOffset;
+    public final long dataSize;
+
+    public WavHeader(int audioFormat, int channelCount, int sampleRate, int bitsPerSample,
+                     long dataOffset, long dataSize) {
+        this.audioFormat = audioFormat;
+        this.channelCount = channelCount;
+        this.sampleRate = sampleRate;
+        this.bitsPerSample = bitsPerSample;
+        this.blockAlign = channelCount * bitsPerSample / 8;
+        this.dataOffset = dataOffset;
+        this.dataSize = dataSize - dataSize % Math.max(blockAlign, 1);
+    }
+
+    /**
+     * Describes headerless 16 bit little endian PCM.
+     */
+    public static WavHeader rawPcm(int sampleRate, int channelCount, long dataOffset, long dataSize) {
+        return new WavHeader(FORMAT_PCM, channelCount, sampleRate, 16, dataOffset, dataSize);
+    }
+
+    public long getFrameCount() {
+        return dataSize / blockAlign;
+    }
+
+    public long getDurationUs() {
+        return getFrameCount() * 1000000L / sampleRate;
+    }
+
+    /**
+     * Returns true if the samples are 16 bit integers, so they can be used without any conversion.
+     */
+    public boolean isPcm16() {
+        return audioFormat == FORMAT_PCM && bitsPerSample == 16;
+    }
+
+    /**
+     * Returns true if we can decode this format.
+     */
+    public boolean isSupported() {
+        if (channelCount < 1 || sampleRate < 1 || blockAlign < 1) return false;
+        if (audioFormat == FORMAT_PCM) {
+            return bitsPerSample == 8 || bitsPerSample == 16 || bitsPerSample == 24 || bitsPerSample == 32;
+        }
+        return audioFormat == FORMAT_IEEE_FLOAT && bitsPerSample == 32;
+    }
+
+    /**
+     * Reads the header of the WAV file in the given region of the channel.
+     * The position of the channel is not changed.
+     *
+     * @return the header, or null if it is not a WAV file
+     */
+    public static WavHeader read(FileChannel channel, long offset, long length) throws IOException {
+        final long end = offset + length;
+        ByteBuffer buffer = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+
+        if (!readFully(channel, buffer, offset, 12)) return null;
+        if (buffer.getInt(0) != RIFF || buffer.getInt(8) != WAVE) return null;
+
+        int audioFormat = -1, channelCount = 0, sampleRate = 0, bitsPerSample = 0;
+        long position = offset + 12;
+        while (position + 8 <= end) {
+            if (!readFully(channel, buffer, position, 8)) return null;
+            final int chunkId = buffer.getInt(0);
+            final long chunkSize = buffer.getInt(4) & 0xFFFFFFFFL;
+            final long chunkData = position + 8;
+
+            if (chunkId == FMT) {
+                // Every format has at least the 16 bytes of PCM's fmt chunk
+                if (chunkSize < 16) return null;
+                if (!readFully(channel, buffer, chunkData, (int) Math.min(chunkSize, 40))) return null;
+                audioFormat = buffer.getShort(0) & 0xFFFF;
+                channelCount = buffer.getShort(2) & 0xFFFF;
+                sampleRate = buffer.getInt(4);
+                bitsPerSample = buffer.getShort(14) & 0xFFFF;
+                if (audioFormat == FORMAT_EXTENSIBLE && chunkSize >= 26) {
+                    // First two bytes of the sub-format GUID is the actual format
+                    audioFormat = buffer.getShort(24) & 0xFFFF;
+                }
+            } else if (chunkId == DATA) {
+                if (audioFormat < 0) return null;
+                // Size may be wrong for files which were being written, so we trust the file size
+                final long dataSize = Math.min(chunkSize, end - chunkData);
+                return new WavHeader(audioFormat, channelCount, sampleRate, bitsPerSample, chunkData, dataSize);
+            }
+
+            // Chunks are padded to even size
+            position = chunkData + chunkSize + (chunkSize & 1);
+        }
+        return null;
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position, int size) throws IOException {
+        buffer.clear();
+        buffer.limit(size);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) return false;
+        }
+        return true;
+    }
+}
@@ -1,8 +1,11 @@
 package zeroonezero.android.audio_mixer.input;
 
+import java.nio.ShortBuffer;
+
 public abstract class AudioInput {
     private boolean loopingEnabled;
-    private float volume = 1f;
+    // It may be changed from another thread while mixing, the mixer takes it for each block
+    private volatile float volume = 1f;
 
     public boolean isLoopingEnabled() {
         return loopingEnabled;
@@ -33,4 +36,56 @@ public abstract class AudioInput {
     public abstract short getNext();
     public abstract void release();
 
+    /*
+    * Reads up to 'len' values into 'dst' starting at 'off' and returns how many values were read.
+    * Fewer than 'len' values are read only if the input has no remaining value.
+    * Subclasses should override this to avoid going through 'getNext()' for every single value.
+    */
+    public int read(short[] dst, int off, int len){
+        int read = 0;
+        while(read < len && hasRemaining()){
+            dst[off + read] = getNext();
+            read++;
+        }
+        return read;
+    }
+
+    /*
+    * Returns how many of the next values are known to be silent, e.g. a blank input or a start offset.
+    * The mixer skips them with 'skipSilence()' instead of reading zeros.
+    */
+    public int getSilentShorts(){
+        return 0;
+    }
+
+    /*
+    * Skips up to 'len' of the silent values reported by 'getSilentShorts()' and returns how many were skipped.
+    */
+    public int skipSilence(int len){
+        return 0;
+    }
+
+    /*
+    * Reads up to 'len' values without copying them and returns a buffer holding them between its position
+    * and limit. The buffer is valid till the next read. Fewer than 'len' values may be returned even if
+    * the input has more, e.g. where it loops.
+    * Returns null if the input can't share its values, then 'read()' must be used instead.
+    */
+    public ShortBuffer readView(int len){
+        return null;
+    }
+
+    /*
+    * Inputs which hold heavy resources, e.g. codecs, may acquire them here instead of in 'start()'.
+    * The mixer calls it shortly before the input's first audible value, after 'start()'.
+    * Inputs which are read without being activated must activate themselves when they need to.
+    */
+    public void activate(){ }
+
+    /*
+    * Called by the mixer as soon as the input has no remaining value,
+    * so it can give up heavy resources before 'release()'.
+    */
+    public void deactivate(){ }
+
 }
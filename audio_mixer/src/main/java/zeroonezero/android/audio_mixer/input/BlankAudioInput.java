@@ -1,5 +1,7 @@
 package zeroonezero.android.audio_mixer.input;
 
+import java.util.Arrays;
+
 import zeroonezero.android.audio_mixer.AudioConversions;
 
 public class BlankAudioInput extends AudioInput {
@@ -71,6 +73,37 @@ public class BlankAudioInput extends AudioInput {
         return 0;
     }
 
+    @Override
+    public int read(short[] dst, int off, int len) {
+        int read = 0;
+        while(read < len && hasRemaining()){
+            int count = Math.min(len - read, remainingShorts);
+            Arrays.fill(dst, off + read, off + read + count, (short) 0);
+            read += count;
+
+            remainingShorts -= count;
+            if(isLoopingEnabled() && remainingShorts == 0){
+                remainingShorts = requiredShortsForDuration;
+            }
+        }
+        return read;
+    }
+
+    @Override
+    public int getSilentShorts() {
+        return remainingShorts;
+    }
+
+    @Override
+    public int skipSilence(int len) {
+        int skipped = Math.min(len, remainingShorts);
+        remainingShorts -= skipped;
+        if(isLoopingEnabled() && remainingShorts == 0){
+            remainingShorts = requiredShortsForDuration;
+        }
+        return skipped;
+    }
+
     @Override
     public void release() {
         remainingShorts = 0;
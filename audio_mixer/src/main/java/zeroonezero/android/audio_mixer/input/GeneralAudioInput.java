@@ -6,19 +6,46 @@ import android.content.res.AssetFileDescriptor;
 import android.media.MediaDataSource;
 import android.net.Uri;
 
+import java.io.File;
 import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.Map;
 
 import zeroonezero.android.audio_mixer.AudioBufferConverter;
 import zeroonezero.android.audio_mixer.AudioConversions;
 import zeroonezero.android.audio_mixer.AudioDecoder;
+import zeroonezero.android.audio_mixer.DecoderPool;
+import zeroonezero.android.audio_mixer.MixerStats;
+import zeroonezero.android.audio_mixer.PcmCache;
+import zeroonezero.android.audio_mixer.PcmDecoder;
+import zeroonezero.android.audio_mixer.PcmRingBuffer;
+import zeroonezero.android.audio_mixer.ShortViewCache;
+import zeroonezero.android.audio_mixer.WavDecoder;
+import zeroonezero.android.audio_mixer.resample.ResamplingQuality;
 
 public class GeneralAudioInput extends AudioInput {
+    private static final String TAG = GeneralAudioInput.class.getSimpleName();
 
-    private final AudioDecoder decoder;
+    /*
+    * Duration of decoded audio the background worker can keep ahead of the mixer.
+    */
+    private static final long BACKGROUND_BUFFER_US = 500000;
+
+    private static final int CACHE_BUFFER_SIZE = 16 * 1024; // in bytes
+
+    public static final long DEFAULT_LOOP_CACHE_MAX_SIZE = 8 * 1024 * 1024; // in bytes
+
+    private final PcmDecoder decoder;
     private AudioBufferConverter audioBufferConverter;
+    // Decoded buffers are read through these views, so no view is created per decoded buffer
+    private final ShortViewCache decodedViews = new ShortViewCache();
+    private ResamplingQuality resamplingQuality = ResamplingQuality.FAST;
 
     private long startOffsetUs;
     private int requiredShortsForStartOffset;
@@ -30,45 +57,124 @@ public class GeneralAudioInput extends AudioInput {
     private ShortBuffer buffer;
     private boolean hasRemaining;
 
+    /*
+    * Decoder is started and released between activation and deactivation.
+    */
+    private boolean active;
+
+    /*
+    * Converter holds back some values at the end of input, we get them by flushing.
+    */
+    private boolean converterFlushed;
+
+    private final short[] singleValue = new short[1];
+
+    /*
+    * In background decoding, 'decodeWorker' decodes and converts into 'ringBuffer'
+    * and reading is done from 'ringBuffer'. 'buffer' is then used only by the worker.
+    */
+    private boolean backgroundDecodingEnabled;
+    private PcmRingBuffer ringBuffer;
+    private Thread decodeWorker;
+
+    /*
+    * Without background decoding, the worker may still pre-roll the first 'prerollUs' of the input
+    * from activation on, so its decoder has started and primed before the mixer gets to it.
+    * When the pre-rolled values are used up, the worker is done and decoding goes on in the reading thread.
+    */
+    private long prerollUs;
+    private boolean prerolling;
+
+    // Stage times and allocations are recorded in it if it is set
+    private MixerStats mixerStats;
+
+    /*
+    * If a cache is set and the source has an identity, converted values of the first pass are written
+    * into 'cacheTempFile' and it is put into the cache at the end. If the cache already has them,
+    * they are read from 'cacheReadChannel' and the decoder is never started.
+    * When looping, values are read back from the cache after the first pass instead of decoding again.
+    */
+    private PcmCache pcmCache;
+    private String sourceIdentity;
+    private String cacheKey;
+    private File cacheTempFile;
+    private FileChannel cacheWriteChannel;
+    private FileChannel cacheReadChannel;
+    private ByteBuffer cacheByteBuffer;
+    private ShortBuffer cacheShortBuffer;
+
+    /*
+    * When looping, converted values of the first pass are kept in 'loopValues' if they fit in 'loopCacheMaxSize'.
+    * Next passes are read from 'loopBuffer' which wraps them, and the codec is released after the first pass.
+    */
+    private long loopCacheMaxSize = DEFAULT_LOOP_CACHE_MAX_SIZE;
+    private short[] loopValues;
+    private int loopSize;
+    private ShortBuffer loopBuffer;
+
+    /*
+    * Uncompressed WAV sources that we can read as files are decoded by WavDecoder,
+    * everything else goes through MediaCodec.
+    */
     public GeneralAudioInput(String sourcePath) throws IOException {
-        decoder = new AudioDecoder(sourcePath);
-        init();
+        this(WavDecoder.sniff(sourcePath) != null ? new WavDecoder(sourcePath) : new AudioDecoder(sourcePath));
+        sourceIdentity = fileIdentity(sourcePath);
     }
 
     public GeneralAudioInput(FileDescriptor fd) throws IOException{
-        decoder = new AudioDecoder(fd);
-        init();
+        this(WavDecoder.sniff(fd, 0, -1) != null ? new WavDecoder(fd) : new AudioDecoder(fd));
     }
 
     @TargetApi(24)
     public GeneralAudioInput(AssetFileDescriptor afd) throws IOException{
-        decoder = new AudioDecoder(afd);
-        init();
+        this(WavDecoder.sniff(afd.getFileDescriptor(), afd.getStartOffset(), afd.getDeclaredLength()) != null
+                ? new WavDecoder(afd.getFileDescriptor(), afd.getStartOffset(), afd.getDeclaredLength())
+                : new AudioDecoder(afd));
     }
 
     @TargetApi(23)
     public GeneralAudioInput(MediaDataSource dataSource) throws IOException{
-        decoder = new AudioDecoder(dataSource);
-        init();
+        this(new AudioDecoder(dataSource));
     }
 
     public GeneralAudioInput(String path, Map<String, String> headers) throws IOException{
-        decoder = new AudioDecoder(path, headers);
-        init();
+        this(new AudioDecoder(path, headers));
     }
 
     public GeneralAudioInput(FileDescriptor fd, long offset, long length) throws IOException{
-        decoder = new AudioDecoder(fd, offset, length);
-        init();
+        this(WavDecoder.sniff(fd, offset, length) != null
+                ? new WavDecoder(fd, offset, length) : new AudioDecoder(fd, offset, length));
     }
 
     public GeneralAudioInput(Context context, Uri uri, Map<String, String> headers) throws IOException{
-        decoder = new AudioDecoder(context, uri, headers);
+        this(isFileUri(uri) && WavDecoder.sniff(uri.getPath()) != null
+                ? new WavDecoder(uri.getPath()) : new AudioDecoder(context, uri, headers));
+        if(isFileUri(uri)) sourceIdentity = fileIdentity(uri.getPath());
+    }
+
+    /**
+     * Uses the given decoder, so any source can be mixed by implementing {@link PcmDecoder}.
+     */
+    public GeneralAudioInput(PcmDecoder decoder){
+        this.decoder = decoder;
         init();
     }
 
+    private static boolean isFileUri(Uri uri){
+        return "file".equals(uri.getScheme()) && uri.getPath() != null;
+    }
+
+    /*
+    * A local file is identified by its path, size and modification time, so a changed file isn't served from cache.
+    */
+    private static String fileIdentity(String path){
+        File file = new File(path);
+        if(!file.isFile()) return null;
+        return file.getAbsolutePath() + '|' + file.length() + '|' + file.lastModified();
+    }
+
     private void init(){
-        audioBufferConverter = new AudioBufferConverter();
+        audioBufferConverter = new AudioBufferConverter(resamplingQuality);
     }
 
     @Override
@@ -81,6 +187,128 @@ public class GeneralAudioInput extends AudioInput {
         return startOffsetUs;
     }
 
+    public boolean isBackgroundDecodingEnabled() {
+        return backgroundDecodingEnabled;
+    }
+
+    /*
+    * If it is enabled, decoding and conversion are done in a separate thread
+    * ahead of mixing. It must be set before starting.
+    */
+    public void setBackgroundDecodingEnabled(boolean backgroundDecodingEnabled) {
+        this.backgroundDecodingEnabled = backgroundDecodingEnabled;
+    }
+
+    public long getPrerollUs() {
+        return prerollUs;
+    }
+
+    /*
+    * If it is set and background decoding is disabled, the first 'prerollUs' of the input are decoded
+    * in a separate thread from activation on. It must be set before starting.
+    */
+    public void setPrerollUs(long prerollUs) {
+        this.prerollUs = prerollUs < 0 ? 0 : prerollUs;
+    }
+
+    public boolean isAsyncCodecEnabled() {
+        return decoder instanceof AudioDecoder && ((AudioDecoder) decoder).isAsyncModeEnabled();
+    }
+
+    /*
+    * If it is enabled, decoder runs in asynchronous mode where it is supported.
+    * It has no effect if the decoder doesn't use MediaCodec. It must be set before starting.
+    */
+    public void setAsyncCodecEnabled(boolean asyncCodecEnabled) {
+        if(decoder instanceof AudioDecoder){
+            ((AudioDecoder) decoder).setAsyncModeEnabled(asyncCodecEnabled);
+        }
+    }
+
+    /*
+    * Whether the input holds a MediaCodec instance while it is active.
+    */
+    public boolean usesCodec() {
+        return decoder instanceof AudioDecoder;
+    }
+
+    public DecoderPool getDecoderPool() {
+        return decoder instanceof AudioDecoder ? ((AudioDecoder) decoder).getDecoderPool() : null;
+    }
+
+    /*
+    * If it is set, codec is taken from the pool and given back to it when decoding is done.
+    * It has no effect if the decoder doesn't use MediaCodec. It must be set before starting.
+    */
+    public void setDecoderPool(DecoderPool decoderPool) {
+        if(decoder instanceof AudioDecoder){
+            ((AudioDecoder) decoder).setDecoderPool(decoderPool);
+        }
+    }
+
+    public MixerStats getMixerStats() {
+        return mixerStats;
+    }
+
+    public void setMixerStats(MixerStats mixerStats) {
+        this.mixerStats = mixerStats;
+        audioBufferConverter.setMixerStats(mixerStats);
+        decodedViews.setMixerStats(mixerStats);
+        if(decoder instanceof AudioDecoder){
+            ((AudioDecoder) decoder).setMixerStats(mixerStats);
+        }
+    }
+
+    public PcmCache getPcmCache() {
+        return pcmCache;
+    }
+
+    /*
+    * Sources are cached only if they have an identity. Local files have one,
+    * for other sources it must be set with 'setSourceIdentity()'. It must be set before starting.
+    */
+    public void setPcmCache(PcmCache pcmCache) {
+        this.pcmCache = pcmCache;
+    }
+
+    public long getLoopCacheMaxSize() {
+        return loopCacheMaxSize;
+    }
+
+    /*
+    * Maximum size of a loop kept in memory in bytes, 0 disables it.
+    * Longer loops are decoded again on each pass. It must be set before starting.
+    */
+    public void setLoopCacheMaxSize(long loopCacheMaxSize) {
+        this.loopCacheMaxSize = Math.max(0, loopCacheMaxSize);
+    }
+
+    public String getSourceIdentity() {
+        return sourceIdentity;
+    }
+
+    /*
+    * Identity of the source for caching, e.g. a content URI with its version.
+    * Different sources must not have the same identity.
+    */
+    public void setSourceIdentity(String sourceIdentity) {
+        this.sourceIdentity = sourceIdentity;
+    }
+
+    public ResamplingQuality getResamplingQuality() {
+        return resamplingQuality;
+    }
+
+    /*
+    * It must be set before starting.
+    */
+    public void setResamplingQuality(ResamplingQuality resamplingQuality) {
+        if(this.resamplingQuality == resamplingQuality) return;
+        this.resamplingQuality = resamplingQuality;
+        audioBufferConverter = new AudioBufferConverter(resamplingQuality);
+        audioBufferConverter.setMixerStats(mixerStats);
+    }
+
     @Override
     public long getStartTimeUs() {
         return decoder.getStartTimeUs();
@@ -135,51 +363,404 @@ public class GeneralAudioInput extends AudioInput {
         this.outputSampleRate = outputSampleRate;
         this.outputChannelCount = outputChannelCount;
         hasRemaining = true;
-        decoder.start();
+        converterFlushed = false;
+        audioBufferConverter.reset();
 
         requiredShortsForStartOffset = AudioConversions.usToShorts(getStartOffsetUs(), this.outputSampleRate, this.outputChannelCount);
         startOffsetShortsCounter = 0;
+
+        // Decoder is started on activation, so an input far in the timeline doesn't hold a codec till then
+        active = false;
+    }
+
+    @Override
+    public void activate() {
+        if(active || !hasRemaining) return;
+        active = true;
+
+        openCache();
+        prepareLoopCache();
+        final boolean decoderNeeded = cacheReadChannel == null;
+        if(decoderNeeded) updateDecoderLooping();
+
+        // A worker starts the decoder itself, so codec creation doesn't hold up the reading thread either
+        if(backgroundDecodingEnabled){
+            startDecodeWorker(decoderNeeded, BACKGROUND_BUFFER_US, Long.MAX_VALUE);
+        }else if(prerollUs > 0){
+            prerolling = true;
+            startDecodeWorker(decoderNeeded, prerollUs,
+                    AudioConversions.usToShorts(prerollUs, outputSampleRate, outputChannelCount));
+        }else if(decoderNeeded){
+            decoder.start();
+        }
+    }
+
+    /*
+    * Codec is released as soon as we are done, values of the cache or of the loop are not needed anymore either.
+    */
+    @Override
+    public void deactivate() {
+        if(!active) return;
+        active = false;
+
+        stopDecodeWorker();
+        buffer = null;
+        loopValues = null;
+        loopBuffer = null;
+        closeCache();
+        decoder.stop();
+        decodedViews.clear();
+    }
+
+    /*
+    * Worker decodes till 'maxShorts' values have been written into the ring or decoding is done.
+    */
+    private void startDecodeWorker(final boolean startDecoder, long bufferUs, final long maxShorts){
+        int capacity = AudioConversions.usToShorts(bufferUs, outputSampleRate, outputChannelCount);
+        final PcmRingBuffer ring = new PcmRingBuffer(Math.max(capacity, outputChannelCount));
+        countAllocation(ring.getCapacity() * 2L);
+        ringBuffer = ring;
+
+        decodeWorker = new Thread(TAG + "-decoder"){
+            public void run() {
+                try{
+                    if(startDecoder) decoder.start();
+                    long written = 0;
+                    while(written < maxShorts){
+                        decode();
+                        if(buffer == null) break; // decoding done
+                        written += buffer.remaining();
+                        if(!ring.write(buffer)) break; // input released
+                    }
+                    ring.close();
+                }catch (Throwable e){
+                    ring.close(e);
+                }
+            }
+        };
+        decodeWorker.start();
+    }
+
+    private void countAllocation(long bytes){
+        if(mixerStats != null) mixerStats.addAllocation(bytes);
+    }
+
+    private void stopDecodeWorker(){
+        if(decodeWorker != null){
+            ringBuffer.abort();
+            try { decodeWorker.join(); }catch (InterruptedException e){ }
+            decodeWorker = null;
+        }
+        ringBuffer = null;
+        prerolling = false;
+    }
+
+    /*
+    * When pre-rolled values are used up, the worker has exited and we decode the rest ourselves.
+    */
+    private void finishPrerollIfDrained(){
+        if(prerolling && !ringBuffer.awaitReadable()) stopDecodeWorker();
     }
 
     @Override
     public short getNext() {
         if(!hasRemaining()) throw new RuntimeException("Audio input has no remaining value.");
 
+        read(singleValue, 0, 1);
+        return singleValue[0];
+    }
+
+    @Override
+    public int read(short[] dst, int off, int len) {
+        int read = 0;
+        if(!hasRemaining()) return read;
+
+        // Start offset is silence, so we fill it at once
         if(startOffsetShortsCounter < requiredShortsForStartOffset){
-            startOffsetShortsCounter++;
-            return 0;
+            int count = Math.min(len, requiredShortsForStartOffset - startOffsetShortsCounter);
+            Arrays.fill(dst, off, off + count, (short) 0);
+            startOffsetShortsCounter += count;
+            read += count;
         }
 
-        decode();
-        short value = 0;
-        if(buffer != null && buffer.remaining() > 0) value = buffer.get();
-        decode();
+        // Mixer activates us before now, but we may be read without a mixer
+        if(read < len && !active) activate();
+
+        if(ringBuffer != null){
+            read += ringBuffer.read(dst, off + read, len - read);
+            if(read < len) finishPrerollIfDrained();
+        }
+        if(ringBuffer == null){
+            while(read < len){
+                decode();
+                if(buffer == null || buffer.remaining() < 1) break;
+
+                int count = Math.min(len - read, buffer.remaining());
+                buffer.get(dst, off + read, count);
+                read += count;
+            }
+        }
+
+        lookAhead();
+        return read;
+    }
+
+    /*
+    * We look ahead to know whether there is any remaining value
+    */
+    private void lookAhead(){
+        if(startOffsetShortsCounter >= requiredShortsForStartOffset){
+            if(!active) activate();
+            finishPrerollIfDrained();
+            if(ringBuffer != null){
+                hasRemaining = ringBuffer.awaitReadable();
+            }else{
+                decode();
+                if(buffer == null || buffer.remaining() < 1) hasRemaining = false;
+            }
+        }
+    }
 
-        if(buffer == null || buffer.remaining() < 1) hasRemaining = false;
+    @Override
+    public int getSilentShorts() {
+        return hasRemaining() ? Math.max(0, requiredShortsForStartOffset - startOffsetShortsCounter) : 0;
+    }
 
-        return value;
+    @Override
+    public int skipSilence(int len) {
+        final int count = Math.min(len, getSilentShorts());
+        startOffsetShortsCounter += count;
+        lookAhead();
+        return count;
     }
 
     private void decode(){
-        if(buffer == null || buffer.remaining() <= 0){
-            AudioDecoder.DecodedBufferData audioData = decoder.decode();
+        // Converter may not produce any value for a small decoded buffer, so we continue till we get some
+        while(buffer == null || buffer.remaining() <= 0){
+            if(loopBuffer != null){
+                loopBuffer.rewind();
+                buffer = loopBuffer;
+                continue;
+            }
+
+            if(cacheReadChannel != null){
+                buffer = readCache();
+                if(buffer == null) return;
+                continue;
+            }
+
+            if(converterFlushed){
+                buffer = null;
+                // First pass has been cached, next passes are read from there
+                if(cacheWriteChannel != null) commitCache();
+                if(loopValues != null) completeLoopCache();
+                if(loopBuffer != null || cacheReadChannel != null) continue;
+                return;
+            }
+
+            long time = mixerStats != null ? System.nanoTime() : 0;
+            PcmDecoder.DecodedBufferData audioData = decoder.decode();
+            if(mixerStats != null){
+                long now = System.nanoTime();
+                mixerStats.addStageTime(MixerStats.Stage.DECODE, now - time);
+                time = now;
+            }
+
             if(audioData.index >= 0){
-                buffer = audioBufferConverter.convert(audioData.byteBuffer.asShortBuffer(),
+                buffer = audioBufferConverter.convert(decodedViews.get(audioData.index, audioData.byteBuffer),
                         decoder.getSampleRate(), decoder.getChannelCount(),
                         outputSampleRate, outputChannelCount);
                 decoder.releaseOutputBuffer(audioData.index);
             } else{
-                buffer = null;
+                buffer = audioBufferConverter.flush(decoder.getSampleRate(), decoder.getChannelCount(),
+                        outputSampleRate, outputChannelCount);
+                converterFlushed = true;
+            }
+            if(mixerStats != null) mixerStats.addStageTime(MixerStats.Stage.CONVERT, System.nanoTime() - time);
+            if(cacheWriteChannel != null) writeCache(buffer);
+            if(loopValues != null) appendLoopCache(buffer);
+        }
+    }
+
+    /*
+    * Decoder loops by itself only if we can't loop over cached values.
+    */
+    private void updateDecoderLooping(){
+        decoder.setLoopingEnabled(isLoopingEnabled() && cacheWriteChannel == null && loopValues == null);
+    }
+
+    private void prepareLoopCache(){
+        loopValues = null;
+        loopSize = 0;
+        loopBuffer = null;
+        // Values read from a cache file are not decoded, so there is nothing to save
+        if(!isLoopingEnabled() || loopCacheMaxSize <= 0 || cacheReadChannel != null) return;
+
+        long expectedShorts = (getEndTimeUs() - getStartTimeUs()) * outputSampleRate / 1000000L * outputChannelCount;
+        // Decoded duration may be a bit longer than calculated
+        expectedShorts += outputSampleRate / 100 * outputChannelCount;
+        if(expectedShorts * 2 <= loopCacheMaxSize){
+            loopValues = new short[(int) expectedShorts];
+            countAllocation(expectedShorts * 2);
+        }
+    }
+
+    private void appendLoopCache(ShortBuffer values){
+        final int count = values.remaining();
+        if(loopSize + count > loopValues.length){
+            long requiredSize = (long) (loopSize + count) * 2;
+            if(requiredSize > loopCacheMaxSize){
+                // It doesn't fit, so decoder has to loop after all
+                loopValues = null;
+                loopSize = 0;
+                updateDecoderLooping();
+                return;
+            }
+            loopValues = Arrays.copyOf(loopValues, (int) Math.min(loopCacheMaxSize / 2,
+                    Math.max(loopSize + count, loopValues.length * 3L / 2)));
+            countAllocation(loopValues.length * 2L);
+        }
+
+        final int position = values.position();
+        values.get(loopValues, loopSize, count);
+        values.position(position);
+        loopSize += count;
+    }
+
+    /*
+    * First pass has been kept, so we don't need the codec anymore.
+    */
+    private void completeLoopCache(){
+        if(loopSize > 0){
+            loopBuffer = ShortBuffer.wrap(loopValues, 0, loopSize).slice();
+        }
+        loopValues = null;
+        decoder.stop();
+        decodedViews.clear();
+    }
+
+    private void openCache(){
+        closeCache();
+        if(pcmCache == null || sourceIdentity == null) return;
+
+        cacheKey = PcmCache.createKey(sourceIdentity, getStartTimeUs(), getEndTimeUs(),
+                outputSampleRate, outputChannelCount, resamplingQuality);
+        if(cacheByteBuffer == null){
+            cacheByteBuffer = ByteBuffer.allocateDirect(CACHE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            countAllocation(CACHE_BUFFER_SIZE);
+            cacheShortBuffer = cacheByteBuffer.asShortBuffer();
+        }
+
+        try {
+            File cachedFile = pcmCache.get(cacheKey);
+            if(cachedFile != null){
+                cacheReadChannel = new RandomAccessFile(cachedFile, "r").getChannel();
+            }else{
+                cacheTempFile = pcmCache.createTempFile();
+                cacheWriteChannel = new RandomAccessFile(cacheTempFile, "rw").getChannel();
+                cacheShortBuffer.clear();
             }
-            audioData = null;
+        } catch (IOException e) {
+            // Caching is only an optimization, we decode as usual
+            closeCache();
+        }
+    }
+
+    private void writeCache(ShortBuffer values){
+        final int position = values.position();
+        final int limit = values.limit();
+        try {
+            while(values.hasRemaining()){
+                final int count = Math.min(values.remaining(), cacheShortBuffer.remaining());
+                values.limit(values.position() + count);
+                cacheShortBuffer.put(values);
+                values.limit(limit);
+                if(!cacheShortBuffer.hasRemaining()) flushCache();
+            }
+        } catch (IOException e) {
+            // Decoder may have to loop again, as there will be no cache to loop over
+            closeCache();
+            updateDecoderLooping();
+        }
+        values.limit(limit);
+        values.position(position);
+    }
+
+    private void flushCache() throws IOException {
+        cacheByteBuffer.clear();
+        cacheByteBuffer.limit(cacheShortBuffer.position() * 2);
+        while(cacheByteBuffer.hasRemaining()) cacheWriteChannel.write(cacheByteBuffer);
+        cacheShortBuffer.clear();
+    }
+
+    /*
+    * Puts the completely written first pass into the cache.
+    * If looping, it is kept open for reading the next passes.
+    */
+    private void commitCache(){
+        try {
+            flushCache();
+            cacheWriteChannel.close();
+            cacheWriteChannel = null;
+
+            // Opened before moving, so we can read it even if it is evicted right away
+            if(isLoopingEnabled() && loopValues == null) cacheReadChannel = new RandomAccessFile(cacheTempFile, "r").getChannel();
+            pcmCache.put(cacheKey, cacheTempFile);
+            cacheTempFile = null;
+        } catch (IOException e) {
+            closeCache();
+        }
+    }
+
+    private ShortBuffer readCache(){
+        try {
+            cacheByteBuffer.clear();
+            while(cacheByteBuffer.hasRemaining()){
+                int read = cacheReadChannel.read(cacheByteBuffer);
+                if(read >= 0) continue;
+
+                // End of cached values
+                if(cacheByteBuffer.position() > 0) break;
+                if(!isLoopingEnabled() || cacheReadChannel.size() == 0) return null;
+                cacheReadChannel.position(0);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read cached PCM", e);
+        }
+        cacheShortBuffer.clear();
+        cacheShortBuffer.limit(cacheByteBuffer.position() / 2);
+        return cacheShortBuffer;
+    }
+
+    /*
+    * Closes cache files. An incomplete entry is deleted.
+    */
+    private void closeCache(){
+        if(cacheReadChannel != null){
+            try { cacheReadChannel.close(); } catch (IOException e) { }
+            cacheReadChannel = null;
+        }
+        if(cacheWriteChannel != null){
+            try { cacheWriteChannel.close(); } catch (IOException e) { }
+            cacheWriteChannel = null;
+        }
+        if(cacheTempFile != null){
+            cacheTempFile.delete();
+            cacheTempFile = null;
         }
     }
 
     @Override
     public void release() {
+        stopDecodeWorker();
+        active = false;
         buffer = null;
+        loopValues = null;
+        loopBuffer = null;
         hasRemaining = false;
+        closeCache();
         decoder.stop();
         decoder.release();
+        decodedViews.clear();
     }
 }
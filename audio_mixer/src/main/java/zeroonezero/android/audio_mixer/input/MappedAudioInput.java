@@ -0,0 +1,358 @@
+package zeroonezero.android.audio_mixer.input;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import zeroonezero.android.audio_mixer.AudioBufferConverter;
+import zeroonezero.android.audio_mixer.AudioConversions;
+import zeroonezero.android.audio_mixer.WavHeader;
+import zeroonezero.android.audio_mixer.resample.ResamplingQuality;
+
+/**
+ * An input for local 16 bit WAV or headerless PCM files, which maps the file into memory
+ * instead of decoding it.
+ *
+ * If the sample rate and channel count of the file are the same as the output's, values are
+ * handed to the mixer as views of the mapped region through {@link #readView(int)}, so they are
+ * neither decoded nor copied and no heap is used. Trimming and looping only move the read position.
+ * Otherwise the mapped values are converted chunk by chunk like {@link GeneralAudioInput} does.
+ */
+public class MappedAudioInput extends AudioInput {
+
+    private static final long MICROSECONDS_PER_SECOND = 1000000L;
+
+    // Frames passed to the converter at once, when conversion is needed
+    private static final int CONVERSION_FRAMES = 4096;
+
+    private final WavHeader header;
+
+    /*
+    * 'samples' holds the whole data chunk. 'view' is handed out by 'readView()'
+    * and 'source' is used for reading and converting, both share the mapped memory.
+    */
+    private final ShortBuffer samples;
+    private final ShortBuffer view;
+    private final ShortBuffer source;
+
+    private long startTimeUs;
+    private long endTimeUs;
+    private long startOffsetUs;
+
+    private int requiredShortsForStartOffset;
+    private int startOffsetShortsCounter;
+
+    /*
+    * Positions in 'samples' in values
+    */
+    private int startPosition;
+    private int endPosition;
+    private int position;
+
+    private int outputSampleRate;
+    private int outputChannelCount;
+    private boolean hasRemaining;
+
+    /*
+    * Conversion is needed only if the file's format isn't the same as the output's.
+    */
+    private boolean passThrough;
+    private ResamplingQuality resamplingQuality = ResamplingQuality.FAST;
+    private AudioBufferConverter audioBufferConverter;
+    private ShortBuffer convertedBuffer;
+    private boolean converterFlushed;
+
+    private final short[] singleValue = new short[1];
+
+    public MappedAudioInput(String sourcePath) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(sourcePath, "r");
+        try {
+            header = readHeader(file.getChannel(), 0, file.length());
+            samples = map(file.getChannel(), header);
+        } finally {
+            file.close();
+        }
+        view = samples.duplicate();
+        source = samples.duplicate();
+        init();
+    }
+
+    /**
+     * Maps headerless 16 bit little endian PCM.
+     */
+    public MappedAudioInput(String sourcePath, int sampleRate, int channelCount) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(sourcePath, "r");
+        try {
+            header = WavHeader.rawPcm(sampleRate, channelCount, 0, file.length());
+            samples = map(file.getChannel(), header);
+        } finally {
+            file.close();
+        }
+        view = samples.duplicate();
+        source = samples.duplicate();
+        init();
+    }
+
+    /*
+    * The file descriptor is not closed, mapping remains valid after the caller closes it.
+    */
+    public MappedAudioInput(FileDescriptor fd, long offset, long length) throws IOException {
+        FileChannel channel = new FileInputStream(fd).getChannel();
+        header = readHeader(channel, offset, length < 0 ? channel.size() - offset : length);
+        samples = map(channel, header);
+        view = samples.duplicate();
+        source = samples.duplicate();
+        init();
+    }
+
+    private static WavHeader readHeader(FileChannel channel, long offset, long length) throws IOException {
+        WavHeader header = WavHeader.read(channel, offset, length);
+        if(header == null) throw new IOException("Source is not a WAV file");
+        return header;
+    }
+
+    private static ShortBuffer map(FileChannel channel, WavHeader header) throws IOException {
+        if(!header.isPcm16()){
+            throw new UnsupportedOperationException("Only 16 bit PCM can be mapped. Use GeneralAudioInput for this format.");
+        }
+        if(header.dataSize > Integer.MAX_VALUE){
+            throw new IOException("PCM data is too large to be mapped: " + header.dataSize + " bytes");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, header.dataOffset, header.dataSize)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asShortBuffer();
+    }
+
+    private void init(){
+        startTimeUs = 0;
+        endTimeUs = header.getDurationUs();
+        audioBufferConverter = new AudioBufferConverter(resamplingQuality);
+    }
+
+    public long getStartOffsetUs() {
+        return startOffsetUs;
+    }
+
+    public void setStartOffsetUs(long startOffsetUs) {
+        this.startOffsetUs = startOffsetUs<0 ? 0 : startOffsetUs;
+    }
+
+    public ResamplingQuality getResamplingQuality() {
+        return resamplingQuality;
+    }
+
+    /*
+    * It is used only if the file's sample rate or channel count isn't the same as the output's.
+    * It must be set before starting.
+    */
+    public void setResamplingQuality(ResamplingQuality resamplingQuality) {
+        if(this.resamplingQuality == resamplingQuality) return;
+        this.resamplingQuality = resamplingQuality;
+        audioBufferConverter = new AudioBufferConverter(resamplingQuality);
+    }
+
+    @Override
+    public long getStartTimeUs() {
+        return startTimeUs;
+    }
+
+    @Override
+    public long getEndTimeUs() {
+        return endTimeUs;
+    }
+
+    @Override
+    public long getDurationUs() {
+        return getEndTimeUs() - getStartTimeUs() + getStartOffsetUs();
+    }
+
+    @Override
+    public int getSampleRate() {
+        return header.sampleRate;
+    }
+
+    @Override
+    public int getBitrate() {
+        return header.sampleRate * header.channelCount * header.bitsPerSample;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return header.channelCount;
+    }
+
+    @Override
+    public void setStartTimeUs(long timeUs) {
+        startTimeUs = Math.max(0, Math.min(timeUs, header.getDurationUs()));
+    }
+
+    @Override
+    public void setEndTimeUs(long timeUs) {
+        endTimeUs = Math.max(0, Math.min(timeUs, header.getDurationUs()));
+    }
+
+    @Override
+    public boolean hasRemaining() {
+        return hasRemaining;
+    }
+
+    @Override
+    public void start(int outputSampleRate, int outputChannelCount) {
+        if(startTimeUs > endTimeUs){
+            throw new RuntimeException("StartTimeUs("+startTimeUs+") must be less than or equal to EndTimeUs("+endTimeUs+")");
+        }
+
+        this.outputSampleRate = outputSampleRate;
+        this.outputChannelCount = outputChannelCount;
+        passThrough = outputSampleRate == header.sampleRate && outputChannelCount == header.channelCount;
+
+        startPosition = usToValues(startTimeUs);
+        // Duration is rounded down to microseconds, so we don't want to lose the last frame
+        endPosition = endTimeUs >= header.getDurationUs() ? samples.capacity() : usToValues(endTimeUs);
+        position = startPosition;
+
+        audioBufferConverter.reset();
+        convertedBuffer = null;
+        converterFlushed = false;
+
+        requiredShortsForStartOffset = AudioConversions.usToShorts(getStartOffsetUs(), outputSampleRate, outputChannelCount);
+        startOffsetShortsCounter = 0;
+
+        updateRemaining();
+    }
+
+    private int usToValues(long us) {
+        long frames = us * header.sampleRate / MICROSECONDS_PER_SECOND;
+        return (int) Math.min(frames * header.channelCount, samples.capacity());
+    }
+
+    @Override
+    public short getNext() {
+        if(!hasRemaining()) throw new RuntimeException("Audio input has no remaining value.");
+
+        read(singleValue, 0, 1);
+        return singleValue[0];
+    }
+
+    @Override
+    public int getSilentShorts() {
+        return hasRemaining() ? Math.max(0, requiredShortsForStartOffset - startOffsetShortsCounter) : 0;
+    }
+
+    @Override
+    public int skipSilence(int len) {
+        final int count = Math.min(len, getSilentShorts());
+        startOffsetShortsCounter += count;
+        updateRemaining();
+        return count;
+    }
+
+    @Override
+    public ShortBuffer readView(int len) {
+        // Silence of start offset and converted values are not in the mapped region
+        if(!passThrough || startOffsetShortsCounter < requiredShortsForStartOffset) return null;
+
+        wrapIfLooping();
+        final int count = Math.max(0, Math.min(len, endPosition - position));
+        view.clear();
+        view.position(position);
+        view.limit(position + count);
+        position += count;
+
+        updateRemaining();
+        return view;
+    }
+
+    @Override
+    public int read(short[] dst, int off, int len) {
+        int read = 0;
+        if(!hasRemaining()) return read;
+
+        // Start offset is silence, so we fill it at once
+        if(startOffsetShortsCounter < requiredShortsForStartOffset){
+            int count = Math.min(len, requiredShortsForStartOffset - startOffsetShortsCounter);
+            Arrays.fill(dst, off, off + count, (short) 0);
+            startOffsetShortsCounter += count;
+            read += count;
+        }
+
+        while(read < len){
+            int count;
+            if(passThrough){
+                wrapIfLooping();
+                count = Math.min(len - read, endPosition - position);
+                if(count <= 0) break;
+                source.clear();
+                source.position(position);
+                source.get(dst, off + read, count);
+                position += count;
+            }else{
+                convert();
+                if(convertedBuffer == null) break;
+                count = Math.min(len - read, convertedBuffer.remaining());
+                convertedBuffer.get(dst, off + read, count);
+            }
+            read += count;
+        }
+
+        updateRemaining();
+        return read;
+    }
+
+    private void wrapIfLooping(){
+        if(position >= endPosition && isLoopingEnabled() && endPosition > startPosition){
+            position = startPosition;
+        }
+    }
+
+    /*
+    * Makes sure 'convertedBuffer' has some value, or it is null if there is no more value.
+    */
+    private void convert(){
+        // Converter may not produce any value for a small chunk, so we continue till we get some
+        while(convertedBuffer == null || convertedBuffer.remaining() <= 0){
+            if(converterFlushed){
+                convertedBuffer = null;
+                return;
+            }
+
+            wrapIfLooping();
+            if(position < endPosition){
+                final int count = Math.min(CONVERSION_FRAMES * header.channelCount, endPosition - position);
+                source.clear();
+                source.position(position);
+                source.limit(position + count);
+                position += count;
+                convertedBuffer = audioBufferConverter.convert(source, header.sampleRate, header.channelCount,
+                        outputSampleRate, outputChannelCount);
+            }else{
+                convertedBuffer = audioBufferConverter.flush(header.sampleRate, header.channelCount,
+                        outputSampleRate, outputChannelCount);
+                converterFlushed = true;
+            }
+        }
+    }
+
+    private void updateRemaining(){
+        if(startOffsetShortsCounter < requiredShortsForStartOffset){
+            hasRemaining = true;
+        }else if(passThrough){
+            hasRemaining = position < endPosition || (isLoopingEnabled() && endPosition > startPosition);
+        }else{
+            convert();
+            hasRemaining = convertedBuffer != null;
+        }
+    }
+
+    @Override
+    public void release() {
+        // Mapping is released when the buffer is garbage collected, there is no API to unmap it
+        hasRemaining = false;
+        convertedBuffer = null;
+    }
+}
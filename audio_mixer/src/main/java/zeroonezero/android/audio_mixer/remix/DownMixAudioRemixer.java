@@ -23,25 +23,36 @@ public class DownMixAudioRemixer implements AudioRemixer {
 
         final int samplesToBeProcessed = Math.min(inRemaining, outSpace);
         for (int i = 0; i < samplesToBeProcessed; ++i) {
-            // Convert to unsigned
-            final int a = inputBuffer.get() + SIGNED_SHORT_LIMIT;
-            final int b = inputBuffer.get() + SIGNED_SHORT_LIMIT;
-            int m;
-            // Pick the equation
-            if ((a < SIGNED_SHORT_LIMIT) || (b < SIGNED_SHORT_LIMIT)) {
-                // Viktor's first equation when both sources are "quiet"
-                // (i.e. less than middle of the dynamic range)
-                m = a * b / SIGNED_SHORT_LIMIT;
-            } else {
-                // Viktor's second equation when one or both sources are loud
-                m = 2 * (a + b) - (a * b) / SIGNED_SHORT_LIMIT - UNSIGNED_SHORT_MAX;
-            }
-            // Convert output back to signed short
-            if (m == UNSIGNED_SHORT_MAX + 1) m = UNSIGNED_SHORT_MAX;
-            outputBuffer.put((short) (m - SIGNED_SHORT_LIMIT));
+            outputBuffer.put(downMix(inputBuffer.get(), inputBuffer.get()));
         }
     }
 
+    /**
+     * Mixes a stereo sample into a mono sample.
+     *
+     * @param left left channel value
+     * @param right right channel value
+     * @return mono value
+     */
+    public static short downMix(short left, short right) {
+        // Convert to unsigned
+        final int a = left + SIGNED_SHORT_LIMIT;
+        final int b = right + SIGNED_SHORT_LIMIT;
+        int m;
+        // Pick the equation
+        if ((a < SIGNED_SHORT_LIMIT) || (b < SIGNED_SHORT_LIMIT)) {
+            // Viktor's first equation when both sources are "quiet"
+            // (i.e. less than middle of the dynamic range)
+            m = a * b / SIGNED_SHORT_LIMIT;
+        } else {
+            // Viktor's second equation when one or both sources are loud
+            m = 2 * (a + b) - (a * b) / SIGNED_SHORT_LIMIT - UNSIGNED_SHORT_MAX;
+        }
+        // Convert output back to signed short
+        if (m == UNSIGNED_SHORT_MAX + 1) m = UNSIGNED_SHORT_MAX;
+        return (short) (m - SIGNED_SHORT_LIMIT);
+    }
+
     @Override
     public int getRemixedSize(int inputSize, int inputChannelCount, int outputChannelCount) {
         return inputSize / 2;
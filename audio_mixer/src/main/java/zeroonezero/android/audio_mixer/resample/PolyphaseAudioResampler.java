@@ -0,0 +1,221 @@
+package zeroonezero.android.audio_mixer.resample;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * An {@link AudioResampler} that converts sample rate with a polyphase windowed-sinc filter.
+ * Unlike {@link UpsampleAudioResampler} and {@link DownsampleAudioResampler},
+ * it interpolates between samples and filters out aliasing frequencies.
+ *
+ * Filter tables are computed once per rate ratio and quality and are shared
+ * between all instances. See {@link ResamplingQuality} for the available tiers.
+ *
+ * It is a {@link StreamingAudioResampler}: the filter sees the previous buffer's tail,
+ * so an instance must be used for one stream at a time.
+ */
+public class PolyphaseAudioResampler implements StreamingAudioResampler {
+
+    private final ResamplingQuality quality;
+
+    /*
+    * Current stream. 'filter' is null if sample rates are same.
+    */
+    private int inputSampleRate = -1;
+    private int outputSampleRate = -1;
+    private int channels = -1;
+    private PolyphaseFilter filter;
+
+    /*
+    * Input samples which are still needed by the filter, interleaved.
+    * The stream starts with 'tapCount / 2 - 1' silent samples, so the first output is centered on the first input.
+    */
+    private short[] pending = new short[0];
+    private int pendingSamples;
+
+    /*
+    * Position of the next output sample in 'pending' is 'index + numerator / upFactor'.
+    */
+    private int index;
+    private int numerator;
+
+    private long streamInputSamples;
+    private long streamOutputSamples;
+
+    public PolyphaseAudioResampler(@NonNull ResamplingQuality quality) {
+        if (quality == ResamplingQuality.FAST) {
+            throw new IllegalArgumentException("Illegal use of PolyphaseAudioResampler. Quality:" + quality);
+        }
+        this.quality = quality;
+    }
+
+    public ResamplingQuality getQuality() {
+        return quality;
+    }
+
+    @Override
+    public void resample(@NonNull ShortBuffer inputBuffer, int inputSampleRate, @NonNull ShortBuffer outputBuffer, int outputSampleRate, int channels) {
+        if (channels != 1 && channels != 2) {
+            throw new IllegalArgumentException("Illegal use of PolyphaseAudioResampler. Channels:" + channels);
+        }
+        ensureStream(inputSampleRate, outputSampleRate, channels);
+        if (filter == null) {
+            PASSTHROUGH.resample(inputBuffer, inputSampleRate, outputBuffer, outputSampleRate, channels);
+            return;
+        }
+
+        final int inputSamples = inputBuffer.remaining() / channels;
+        ensureCapacity(pendingSamples + inputSamples);
+        inputBuffer.get(pending, pendingSamples * channels, inputSamples * channels);
+        pendingSamples += inputSamples;
+        streamInputSamples += inputSamples;
+
+        produce(outputBuffer, Long.MAX_VALUE);
+        compact();
+    }
+
+    @Override
+    public int getResampledSize(int inputSize, int inputSampleRate, int outputSampleRate, int channels) {
+        if (inputSampleRate == outputSampleRate) return inputSize;
+
+        final PolyphaseFilter filter = PolyphaseFilter.get(inputSampleRate, outputSampleRate, quality);
+        long index = this.index;
+        long numerator = this.numerator;
+        long availableSamples = pendingSamples + inputSize / channels;
+        if (!isStream(inputSampleRate, outputSampleRate, channels)) {
+            // It will be a new stream
+            index = filter.tapCount / 2 - 1;
+            numerator = 0;
+            availableSamples = index + inputSize / channels;
+        }
+
+        // Output 'k' can be produced if 'floor(position) + tapCount / 2 < availableSamples'
+        final long end = (availableSamples - filter.tapCount / 2) * filter.upFactor;
+        final long start = index * filter.upFactor + numerator;
+        if (end <= start) return 0;
+        final long count = (end - start + filter.downFactor - 1) / filter.downFactor;
+        return (int) count * channels;
+    }
+
+    @Override
+    public int getFlushSize() {
+        if (filter == null) return 0;
+        return (int) (getStreamOutputSamples() - streamOutputSamples) * channels;
+    }
+
+    @Override
+    public void flush(@NonNull ShortBuffer outputBuffer) {
+        if (filter != null) {
+            // The filter needs 'tapCount / 2' samples after the last input, so we append silence.
+            final int padding = filter.tapCount / 2;
+            ensureCapacity(pendingSamples + padding);
+            Arrays.fill(pending, pendingSamples * channels, (pendingSamples + padding) * channels, (short) 0);
+            pendingSamples += padding;
+
+            produce(outputBuffer, getStreamOutputSamples());
+        }
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        inputSampleRate = -1;
+        outputSampleRate = -1;
+        channels = -1;
+        filter = null;
+        pendingSamples = 0;
+    }
+
+    private boolean isStream(int inputSampleRate, int outputSampleRate, int channels) {
+        return this.inputSampleRate == inputSampleRate
+                && this.outputSampleRate == outputSampleRate
+                && this.channels == channels;
+    }
+
+    private void ensureStream(int inputSampleRate, int outputSampleRate, int channels) {
+        if (isStream(inputSampleRate, outputSampleRate, channels)) return;
+
+        reset();
+        this.inputSampleRate = inputSampleRate;
+        this.outputSampleRate = outputSampleRate;
+        this.channels = channels;
+        if (inputSampleRate == outputSampleRate) return;
+
+        filter = PolyphaseFilter.get(inputSampleRate, outputSampleRate, quality);
+        final int silentSamples = filter.tapCount / 2 - 1;
+        ensureCapacity(silentSamples);
+        Arrays.fill(pending, 0, silentSamples * channels, (short) 0);
+        pendingSamples = silentSamples;
+        index = pendingSamples;
+        numerator = 0;
+        streamInputSamples = 0;
+        streamOutputSamples = 0;
+    }
+
+    private long getStreamOutputSamples() {
+        return (streamInputSamples * filter.upFactor + filter.downFactor - 1) / filter.downFactor;
+    }
+
+    private void produce(ShortBuffer outputBuffer, long maxStreamOutputSamples) {
+        final PolyphaseFilter filter = this.filter;
+        final float[] coefficients = filter.coefficients;
+        final short[] pending = this.pending;
+        final int channels = this.channels;
+        final int tapCount = filter.tapCount;
+        final int halfTaps = tapCount / 2;
+        final int step = filter.downFactor / filter.upFactor;
+        final int remainder = filter.downFactor % filter.upFactor;
+
+        while (index + halfTaps < pendingSamples
+                && outputBuffer.remaining() >= channels
+                && streamOutputSamples < maxStreamOutputSamples) {
+            final int phaseStart = filter.phaseOf(numerator) * tapCount;
+            final int first = (index - halfTaps + 1) * channels;
+
+            for (int c = 0; c < channels; c++) {
+                float sum = 0f;
+                int i = first + c;
+                for (int m = 0; m < tapCount; m++, i += channels) {
+                    sum += coefficients[phaseStart + m] * pending[i];
+                }
+                outputBuffer.put(clamp(sum));
+            }
+            streamOutputSamples++;
+
+            index += step;
+            numerator += remainder;
+            if (numerator >= filter.upFactor) {
+                numerator -= filter.upFactor;
+                index++;
+            }
+        }
+    }
+
+    /*
+    * Drops the samples which will never be used by the filter again.
+    */
+    private void compact() {
+        final int firstNeeded = Math.min(index - filter.tapCount / 2 + 1, pendingSamples);
+        if (firstNeeded <= 0) return;
+        System.arraycopy(pending, firstNeeded * channels, pending, 0, (pendingSamples - firstNeeded) * channels);
+        pendingSamples -= firstNeeded;
+        index -= firstNeeded;
+    }
+
+    private void ensureCapacity(int samples) {
+        if (pending.length < samples * channels) {
+            short[] newPending = new short[samples * channels];
+            System.arraycopy(pending, 0, newPending, 0, pendingSamples * channels);
+            pending = newPending;
+        }
+    }
+
+    static short clamp(float value) {
+        final int rounded = Math.round(value);
+        if (rounded > Short.MAX_VALUE) return Short.MAX_VALUE;
+        if (rounded < Short.MIN_VALUE) return Short.MIN_VALUE;
+        return (short) rounded;
+    }
+}
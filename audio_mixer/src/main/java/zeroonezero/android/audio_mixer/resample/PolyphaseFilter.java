@@ -0,0 +1,126 @@
+package zeroonezero.android.audio_mixer.resample;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coefficient table of a windowed-sinc filter, split into phases for {@link PolyphaseAudioResampler}.
+ *
+ * Sample rates are reduced to 'upFactor / downFactor'. Output sample 'k' lies at input position
+ * 'k * downFactor / upFactor', and the fractional part of that position selects the phase.
+ * Tables are computed once for each ratio and quality and shared through a cache.
+ */
+final class PolyphaseFilter {
+
+    /*
+    * Ratios like 44100 -> 47999 need too many phases for an exact table.
+    * Phases are quantized to this count in that case.
+    */
+    private static final int MAX_PHASE_COUNT = 1024;
+
+    private static final ConcurrentHashMap<Long, PolyphaseFilter> CACHE = new ConcurrentHashMap<>();
+
+    final int upFactor;
+    final int downFactor;
+    final int phaseCount;
+    final int tapCount;
+
+    /*
+    * Coefficients of phase 'p' are at 'p * tapCount'.
+    * Coefficient 'm' of a phase is applied to input sample 'floor(position) - tapCount / 2 + 1 + m'.
+    */
+    final float[] coefficients;
+
+    private PolyphaseFilter(int upFactor, int downFactor, @NonNull ResamplingQuality quality) {
+        this.upFactor = upFactor;
+        this.downFactor = downFactor;
+        phaseCount = Math.min(upFactor, MAX_PHASE_COUNT);
+
+        // For downsampling, cutoff goes down with the ratio, so the filter is widened to keep its quality.
+        final double ratio = Math.min(1.0, (double) upFactor / downFactor);
+        final double cutoff = ratio * quality.rolloff;
+        final int halfTaps = (int) Math.ceil(quality.halfTaps / ratio);
+        tapCount = halfTaps * 2;
+
+        coefficients = new float[phaseCount * tapCount];
+        final double besselOfBeta = besselI0(quality.kaiserBeta);
+        for (int p = 0; p < phaseCount; p++) {
+            final double fraction = (double) p / phaseCount;
+            double sum = 0;
+            for (int m = 0; m < tapCount; m++) {
+                // Distance of this tap's input sample from the output position
+                final double t = fraction + (halfTaps - 1 - m);
+                final double window = kaiser(t / halfTaps, quality.kaiserBeta, besselOfBeta);
+                final double value = cutoff * sinc(cutoff * t) * window;
+                coefficients[p * tapCount + m] = (float) value;
+                sum += value;
+            }
+            // Normalize each phase so DC gain is exactly 1
+            for (int m = 0; m < tapCount; m++) {
+                coefficients[p * tapCount + m] /= sum;
+            }
+        }
+    }
+
+    /**
+     * Returns the cached filter for the given rates and quality, computing it if needed.
+     */
+    static PolyphaseFilter get(int inputSampleRate, int outputSampleRate, @NonNull ResamplingQuality quality) {
+        final int gcd = gcd(inputSampleRate, outputSampleRate);
+        final int upFactor = outputSampleRate / gcd;
+        final int downFactor = inputSampleRate / gcd;
+        final long key = ((long) upFactor << 32) | ((long) downFactor << 3) | quality.ordinal();
+
+        PolyphaseFilter filter = CACHE.get(key);
+        if (filter == null) {
+            filter = new PolyphaseFilter(upFactor, downFactor, quality);
+            PolyphaseFilter existing = CACHE.putIfAbsent(key, filter);
+            if (existing != null) filter = existing;
+        }
+        return filter;
+    }
+
+    /**
+     * Returns the phase for the given fractional position 'numerator / upFactor'.
+     */
+    int phaseOf(int numerator) {
+        if (phaseCount == upFactor) return numerator;
+        return (int) ((long) numerator * phaseCount / upFactor);
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private static double sinc(double x) {
+        if (x == 0) return 1.0;
+        final double px = Math.PI * x;
+        return Math.sin(px) / px;
+    }
+
+    private static double kaiser(double x, double beta, double besselOfBeta) {
+        if (x <= -1.0 || x >= 1.0) return 0;
+        return besselI0(beta * Math.sqrt(1.0 - x * x)) / besselOfBeta;
+    }
+
+    /*
+    * Modified Bessel function of the first kind, order 0, by its power series.
+    */
+    private static double besselI0(double x) {
+        double sum = 1.0;
+        double term = 1.0;
+        final double halfX = x / 2.0;
+        for (int k = 1; k < 50; k++) {
+            term *= (halfX / k) * (halfX / k);
+            sum += term;
+            if (term < sum * 1e-12) break;
+        }
+        return sum;
+    }
+}
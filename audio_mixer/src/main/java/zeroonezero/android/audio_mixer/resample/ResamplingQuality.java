@@ -0,0 +1,37 @@
+package zeroonezero.android.audio_mixer.resample;
+
+/**
+ * Quality of sample rate conversion. Higher quality costs more CPU per sample.
+ *
+ * {@link #FAST} drops or repeats samples like {@link DownsampleAudioResampler} and
+ * {@link UpsampleAudioResampler}. Others use {@link PolyphaseAudioResampler} with
+ * longer filters for higher tiers.
+ */
+public enum ResamplingQuality {
+    FAST(0, 0f, 0f),
+    LOW(4, 0.85f, 5f),
+    MEDIUM(8, 0.90f, 7f),
+    HIGH(16, 0.95f, 9f);
+
+    /*
+    * Half of the filter length in input samples (for upsampling).
+    * For downsampling, the filter is widened by the rate ratio.
+    */
+    final int halfTaps;
+
+    /*
+    * Cutoff frequency relative to the lower Nyquist frequency of input and output.
+    */
+    final float rolloff;
+
+    /*
+    * Beta of Kaiser window. Larger value means more stop-band attenuation and wider transition band.
+    */
+    final float kaiserBeta;
+
+    ResamplingQuality(int halfTaps, float rolloff, float kaiserBeta) {
+        this.halfTaps = halfTaps;
+        this.rolloff = rolloff;
+        this.kaiserBeta = kaiserBeta;
+    }
+}
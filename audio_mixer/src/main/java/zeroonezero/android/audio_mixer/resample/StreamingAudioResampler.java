@@ -0,0 +1,42 @@
+package zeroonezero.android.audio_mixer.resample;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ShortBuffer;
+
+/**
+ * An {@link AudioResampler} which treats consecutive calls of
+ * {@link #resample(ShortBuffer, int, ShortBuffer, int, int)} as one continuous stream.
+ * Fractional phase and filter history are carried from one buffer to the next,
+ * so there is no discontinuity at buffer boundaries and no rounding drift over the stream.
+ *
+ * Each call consumes the whole input buffer. Output of the whole stream is exactly
+ * 'ceil(inputSamples * outputSampleRate / inputSampleRate)' samples once {@link #flush(ShortBuffer)}
+ * is called at the end of the stream. Changing rates or channels starts a new stream.
+ */
+public interface StreamingAudioResampler extends AudioResampler {
+
+    /**
+     * Returns the exact output size (in shorts) the next call of
+     * {@link #resample(ShortBuffer, int, ShortBuffer, int, int)} produces for an input of the given size (in shorts).
+     */
+    int getResampledSize(int inputSize, int inputSampleRate, int outputSampleRate, int channels);
+
+    /**
+     * Returns the exact output size (in shorts) {@link #flush(ShortBuffer)} produces now.
+     */
+    int getFlushSize();
+
+    /**
+     * Puts the remaining output of the current stream into the output buffer
+     * and starts a new stream. It is called at the end of the input.
+     *
+     * @param outputBuffer the output buffer, it should have {@link #getFlushSize()} remaining space
+     */
+    void flush(@NonNull final ShortBuffer outputBuffer);
+
+    /**
+     * Discards the state of the current stream and starts a new stream.
+     */
+    void reset();
+}
@@ -0,0 +1,134 @@
+package zeroonezero.android.audio_mixer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import zeroonezero.android.audio_mixer.input.MappedAudioInput;
+
+import static org.junit.Assert.*;
+
+public class AudioMixerPreviewTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNEL_COUNT = 2;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("audio-mixer-preview-test", ".wav");
+        short[] values = new short[SAMPLE_RATE * CHANNEL_COUNT * 5];
+        for (int i = 0; i < values.length; i++) values[i] = (short) (i * 3);
+
+        WavAudioOutput output = new WavAudioOutput(file.getPath());
+        output.start(SAMPLE_RATE, CHANNEL_COUNT, 0);
+        output.write(ShortBuffer.wrap(values));
+        output.end();
+        output.release();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private AudioMixer createMixer(long readAheadUs) throws IOException {
+        AudioMixer mixer = new AudioMixer();
+        mixer.addDataSource(new MappedAudioInput(file.getPath()));
+        mixer.addDataSource(new MappedAudioInput(file.getPath()));
+        mixer.setLimiterEnabled(true);
+        mixer.setPreviewBlockSize(512);
+        mixer.setReadAheadUs(readAheadUs);
+        return mixer;
+    }
+
+    private static int readAll(AudioMixer mixer) {
+        ShortBuffer buffer = ShortBuffer.allocate(1000);
+        int total = 0;
+        int read;
+        while ((read = mixer.read(buffer)) > 0) {
+            total += read;
+            buffer.clear();
+        }
+        return total;
+    }
+
+    @Test(timeout = 30000)
+    public void readsWholeMix() throws IOException {
+        for (long readAheadUs : new long[]{0, AudioMixer.DEFAULT_READ_AHEAD_US}) {
+            AudioMixer mixer = createMixer(readAheadUs);
+            mixer.start();
+            assertEquals(SAMPLE_RATE * CHANNEL_COUNT * 5, readAll(mixer));
+            mixer.release();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void releaseFromAnotherThreadWhileReading() throws Exception {
+        for (long readAheadUs : new long[]{0, AudioMixer.DEFAULT_READ_AHEAD_US}) {
+            for (int run = 0; run < 20; run++) {
+                final AudioMixer mixer = createMixer(readAheadUs);
+                mixer.start();
+
+                final AtomicReference<Throwable> failure = new AtomicReference<>();
+                final CountDownLatch reading = new CountDownLatch(1);
+                Thread reader = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            ShortBuffer buffer = ShortBuffer.allocate(100);
+                            reading.countDown();
+                            while (mixer.read(buffer) > 0) buffer.clear();
+                        } catch (Throwable t) {
+                            failure.set(t);
+                        }
+                    }
+                });
+                reader.start();
+                reading.await();
+                Thread.sleep(run % 3);
+                mixer.release();
+                reader.join();
+
+                assertNull("read failed after " + run + " runs: " + failure.get(), failure.get());
+                assertEquals(-1, mixer.read(ShortBuffer.allocate(100)));
+            }
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void onEndIsCalledOnceFromMixingThread() throws IOException {
+        for (final long readAheadUs : new long[]{0, AudioMixer.DEFAULT_READ_AHEAD_US}) {
+            final AudioMixer mixer = createMixer(readAheadUs);
+            final AtomicInteger endCount = new AtomicInteger();
+            final AtomicReference<Thread> endThread = new AtomicReference<>();
+            mixer.setProcessingListener(new AudioMixer.ProcessingListener() {
+                @Override
+                public void onProgress(double progress) { }
+
+                @Override
+                public void onEnd() {
+                    endCount.incrementAndGet();
+                    endThread.set(Thread.currentThread());
+                    // Releasing from the listener must not wait for the thread which calls it
+                    mixer.release();
+                }
+            });
+            mixer.start();
+            readAll(mixer);
+
+            assertEquals(1, endCount.get());
+            if (readAheadUs == 0) assertSame(Thread.currentThread(), endThread.get());
+            else assertNotSame(Thread.currentThread(), endThread.get());
+            mixer.release();
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package zeroonezero.android.audio_mixer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+import zeroonezero.android.audio_mixer.input.GeneralAudioInput;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Decoding, viewing and converting a block must not allocate once buffers and views are in place,
+ * so long mixes don't put pressure on the garbage collector.
+ */
+public class DecodeAllocationTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNEL_COUNT = 2;
+    private static final int FRAME_COUNT = 20000;
+    private static final int WARM_UP_BLOCKS = 20000;
+    private static final int MEASURED_BLOCKS = 5000;
+    // The ten minute mix is written in about 13000 blocks, the end of the inputs is left out of the measurement
+    private static final int RENDER_WARM_UP_BLOCKS = 8000;
+    private static final int RENDER_MEASURED_BLOCKS = 4000;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("decode-allocation-test", ".wav");
+        short[] values = new short[FRAME_COUNT * CHANNEL_COUNT];
+        for (int i = 0; i < values.length; i++) values[i] = (short) (i * 3);
+
+        WavAudioOutput output = new WavAudioOutput(file.getPath());
+        output.start(SAMPLE_RATE, CHANNEL_COUNT, 0);
+        output.write(ShortBuffer.wrap(values));
+        output.end();
+        output.release();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        return threadBean;
+    }
+
+    /*
+    * Decodes, views and converts 'blocks' blocks, returns the number of converted values.
+    */
+    private static long decodeBlocks(WavDecoder decoder, ShortViewCache views, AudioBufferConverter converter,
+                                     int blocks, int outputSampleRate, int outputChannelCount) {
+        long values = 0;
+        for (int i = 0; i < blocks; i++) {
+            PcmDecoder.DecodedBufferData data = decoder.decode();
+            ShortBuffer converted = converter.convert(views.get(data.index, data.byteBuffer),
+                    decoder.getSampleRate(), decoder.getChannelCount(), outputSampleRate, outputChannelCount);
+            values += converted.remaining();
+            decoder.releaseOutputBuffer(data.index);
+        }
+        return values;
+    }
+
+    @Test
+    public void decodeLoopDoesNotAllocate() throws IOException {
+        final com.sun.management.ThreadMXBean bean = threadBean();
+        final long threadId = Thread.currentThread().getId();
+        // Same rate and channels, resampling, remixing and both
+        final int[][] formats = {{44100, 2}, {48000, 2}, {44100, 1}, {22050, 1}};
+
+        for (int[] format : formats) {
+            WavDecoder decoder = new WavDecoder(file.getPath());
+            try {
+                decoder.setLoopingEnabled(true);
+                decoder.start();
+                ShortViewCache views = new ShortViewCache();
+                AudioBufferConverter converter = new AudioBufferConverter();
+
+                assertTrue(decodeBlocks(decoder, views, converter, WARM_UP_BLOCKS, format[0], format[1]) > 0);
+
+                final long before = bean.getThreadAllocatedBytes(threadId);
+                final long values = decodeBlocks(decoder, views, converter, MEASURED_BLOCKS, format[0], format[1]);
+                final long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+
+                assertTrue(values > 0);
+                assertEquals(format[0] + " Hz " + format[1] + " channels, bytes per block", 0, allocated / MEASURED_BLOCKS);
+                assertEquals(format[0] + " Hz " + format[1] + " channels, bytes", 0, allocated);
+            } finally {
+                decoder.release();
+            }
+        }
+    }
+
+    @Test
+    public void freshBuffersAreCopiedAndReusedBuffersAreViewed() {
+        ShortViewCache views = new ShortViewCache();
+        ByteBuffer first = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+        first.asShortBuffer().put(new short[]{1, 2, 3, 4});
+        ByteBuffer second = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+        second.asShortBuffer().put(new short[]{5, 6, 7, 8});
+
+        // From API 21 on, a codec gives out a new ByteBuffer every time, their values go into the same array
+        ShortBuffer copied = views.get(0, first);
+        assertEquals(1, copied.get(0));
+        second.position(2).limit(6);
+        ShortBuffer copiedAgain = views.get(0, second);
+        assertSame(copied, copiedAgain);
+        assertEquals(0, copiedAgain.position());
+        assertEquals(2, copiedAgain.limit());
+        assertEquals(6, copiedAgain.get(0));
+
+        // A buffer which comes again for its index is viewed, with the buffer's position and limit in shorts
+        ShortBuffer view = views.get(0, second);
+        assertNotSame(copied, view);
+        assertEquals(1, view.position());
+        assertEquals(3, view.limit());
+        assertEquals(6, view.get());
+        assertSame(view, views.get(0, second));
+    }
+
+    /*
+    * Decoded values go through the whole mixing path, from a decoder which gives out a new ByteBuffer
+    * for each decoded buffer like MediaCodec does, into an output. The encoder is left out,
+    * MediaCodec can't run on the JVM.
+    */
+    @Test
+    public void renderLoopDoesNotAllocate() throws IOException {
+        final com.sun.management.ThreadMXBean bean = threadBean();
+        final long threadId = Thread.currentThread().getId();
+
+        final int[][] formats = {{44100, 2}, {48000, 2}, {22050, 1}};
+        for (int[] format : formats) {
+            AllocationCountingOutput output = new AllocationCountingOutput(bean, threadId);
+            AudioMixer mixer = new AudioMixer(output);
+            mixer.addDataSource(new GeneralAudioInput(new FreshBufferDecoder(SAMPLE_RATE, CHANNEL_COUNT)));
+            mixer.addDataSource(new GeneralAudioInput(new FreshBufferDecoder(format[0], format[1])));
+            mixer.setSampleRate(SAMPLE_RATE);
+            mixer.setChannelCount(CHANNEL_COUNT);
+            mixer.setLimiterEnabled(true);
+            mixer.start();
+            mixer.processSync();
+
+            assertEquals(RENDER_MEASURED_BLOCKS, output.measuredBlocks);
+            assertEquals(format[0] + " Hz " + format[1] + " channels, bytes per block",
+                    0, output.measuredBytes / output.measuredBlocks);
+            assertEquals(format[0] + " Hz " + format[1] + " channels, bytes", 0, output.measuredBytes);
+        }
+    }
+
+    /*
+    * Counts the bytes the mixing thread allocates between its writes after warm-up
+    */
+    private static class AllocationCountingOutput implements AudioOutput {
+        private final com.sun.management.ThreadMXBean bean;
+        private final long threadId;
+        private int blocks;
+        private long warmUpBytes = -1;
+        long measuredBytes;
+        int measuredBlocks;
+
+        AllocationCountingOutput(com.sun.management.ThreadMXBean bean, long threadId) {
+            this.bean = bean;
+            this.threadId = threadId;
+        }
+
+        @Override
+        public void start(int sampleRate, int channelCount, int bitRate) { }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void write(ShortBuffer buffer) {
+            buffer.position(buffer.limit());
+            if (++blocks == RENDER_WARM_UP_BLOCKS) {
+                warmUpBytes = bean.getThreadAllocatedBytes(threadId);
+            } else if (warmUpBytes >= 0 && blocks <= RENDER_WARM_UP_BLOCKS + RENDER_MEASURED_BLOCKS) {
+                measuredBytes = bean.getThreadAllocatedBytes(threadId) - warmUpBytes;
+                measuredBlocks = blocks - RENDER_WARM_UP_BLOCKS;
+            }
+        }
+
+        @Override
+        public void end() { }
+
+        @Override
+        public void release() { }
+    }
+
+    /*
+    * Gives out buffer indices 0 to 3, each time with another ByteBuffer than the index had before,
+    * as MediaCodec does from API 21 on. ByteBuffers are made up front, so the decoder itself doesn't allocate.
+    */
+    private static class FreshBufferDecoder implements PcmDecoder {
+        private static final int FRAMES_PER_BUFFER = 1024;
+        private static final int INDEX_COUNT = 4;
+        private static final long DURATION_US = 600 * 1000000L;
+
+        private final int sampleRate;
+        private final int channelCount;
+        private final ByteBuffer[] buffers = new ByteBuffer[INDEX_COUNT + 1];
+        private final DecodedBufferData data = new DecodedBufferData();
+        private final long totalFrames;
+        private long decodedFrames;
+        private int calls;
+        private boolean decodingDone;
+
+        FreshBufferDecoder(int sampleRate, int channelCount) {
+            this.sampleRate = sampleRate;
+            this.channelCount = channelCount;
+            totalFrames = DURATION_US * sampleRate / 1000000L;
+
+            ByteBuffer values = ByteBuffer.allocateDirect(FRAMES_PER_BUFFER * channelCount * 2).order(ByteOrder.nativeOrder());
+            for (int i = 0; values.hasRemaining(); i++) values.putShort((short) (i * 7));
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = values.duplicate().order(ByteOrder.nativeOrder());
+            }
+        }
+
+        @Override
+        public long getDurationUs() {
+            return DURATION_US;
+        }
+
+        @Override
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        @Override
+        public int getBitrateRate() {
+            return sampleRate * channelCount * 16;
+        }
+
+        @Override
+        public int getChannelCount() {
+            return channelCount;
+        }
+
+        @Override
+        public long getStartTimeUs() {
+            return 0;
+        }
+
+        @Override
+        public long getEndTimeUs() {
+            return DURATION_US;
+        }
+
+        @Override
+        public boolean isLoopingEnabled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDecodingDone() {
+            return decodingDone;
+        }
+
+        @Override
+        public void setStartTimeUs(long startTimeUs) { }
+
+        @Override
+        public void setEndTimeUs(long endTimeUs) { }
+
+        @Override
+        public void setLoopingEnabled(boolean loopingEnabled) { }
+
+        @Override
+        public void start() {
+            decodedFrames = 0;
+            decodingDone = false;
+        }
+
+        @Override
+        public DecodedBufferData decode() {
+            data.index = -1;
+            data.byteBuffer = null;
+            data.size = 0;
+            if (decodedFrames >= totalFrames) {
+                decodingDone = true;
+                return data;
+            }
+
+            final int frames = (int) Math.min(FRAMES_PER_BUFFER, totalFrames - decodedFrames);
+            // An index comes back every 4 calls and there are 5 buffers, so it never gets the one it had before
+            ByteBuffer buffer = buffers[calls % buffers.length];
+            buffer.clear();
+            buffer.limit(frames * channelCount * 2);
+
+            data.index = calls % INDEX_COUNT;
+            data.byteBuffer = buffer;
+            data.offset = 0;
+            data.size = buffer.remaining();
+            data.flags = 0;
+            data.presentationTimeUs = decodedFrames * 1000000L / sampleRate;
+            decodedFrames += frames;
+            calls++;
+            return data;
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index) { }
+
+        @Override
+        public void stop() {
+            decodingDone = true;
+        }
+
+        @Override
+        public void release() {
+            stop();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package zeroonezero.android.audio_mixer;
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+
+import zeroonezero.android.audio_mixer.remix.DefaultAudioRemixer;
+import zeroonezero.android.audio_mixer.resample.DefaultAudioResampler;
+
+import static org.junit.Assert.*;
+
+public class FusedAudioConverterTest {
+
+    private static final int[][] RATES = {
+            {44100, 44100}, {22050, 44100}, {44100, 22050}, {44100, 48000}, {48000, 44100}, {8000, 44100}
+    };
+
+    private static short[] ramp(int size) {
+        short[] values = new short[size];
+        for (int i = 0; i < size; i++) values[i] = (short) (i * 7);
+        return values;
+    }
+
+    private static short[] toArray(ShortBuffer buffer) {
+        short[] values = new short[buffer.remaining()];
+        buffer.get(values);
+        return values;
+    }
+
+    private static short[] fused(short[] input, int chunkSize, int inputSampleRate, int inputChannelCount,
+                                 int outputSampleRate, int outputChannelCount) {
+        FusedAudioConverter converter = new FusedAudioConverter();
+        ShortBuffer output = ShortBuffer.allocate(
+                (int) ((long) input.length * outputSampleRate / inputSampleRate) * 2 + 16);
+        for (int position = 0; position < input.length; position += chunkSize) {
+            ShortBuffer chunk = ShortBuffer.wrap(input, position, Math.min(chunkSize, input.length - position));
+            int expected = converter.getOutputSize(chunk.remaining(), inputSampleRate, inputChannelCount,
+                    outputSampleRate, outputChannelCount);
+            int before = output.position();
+            converter.convert(chunk, inputSampleRate, inputChannelCount, output, outputSampleRate, outputChannelCount);
+            assertEquals("output size", expected, output.position() - before);
+        }
+        output.flip();
+        return toArray(output);
+    }
+
+    /*
+    * Remixes with the default remixer, then takes output frame 'k' from frame 'floor(k * in / out)'.
+    */
+    private static short[] remixThenResample(short[] input, int inputSampleRate, int inputChannelCount,
+                                             int outputSampleRate, int outputChannelCount) {
+        ShortBuffer remixed = ShortBuffer.allocate(input.length * 2);
+        new DefaultAudioRemixer().remix(ShortBuffer.wrap(input), inputChannelCount, remixed, outputChannelCount);
+        remixed.flip();
+
+        final int frames = remixed.remaining() / outputChannelCount;
+        final int outputFrames = (int) (((long) frames * outputSampleRate + inputSampleRate - 1) / inputSampleRate);
+        short[] output = new short[outputFrames * outputChannelCount];
+        for (int k = 0; k < outputFrames; k++) {
+            int frame = (int) ((long) k * inputSampleRate / outputSampleRate);
+            for (int c = 0; c < outputChannelCount; c++) {
+                output[k * outputChannelCount + c] = remixed.get(frame * outputChannelCount + c);
+            }
+        }
+        return output;
+    }
+
+    @Test
+    public void fusedEqualsRemixThenResample() {
+        for (int[] rates : RATES) {
+            for (int inputChannelCount = 1; inputChannelCount <= 2; inputChannelCount++) {
+                for (int outputChannelCount = 1; outputChannelCount <= 2; outputChannelCount++) {
+                    short[] input = ramp(4410 * inputChannelCount);
+                    assertArrayEquals(rates[0] + "->" + rates[1] + " " + inputChannelCount + "->" + outputChannelCount,
+                            remixThenResample(input, rates[0], inputChannelCount, rates[1], outputChannelCount),
+                            fused(input, input.length, rates[0], inputChannelCount, rates[1], outputChannelCount));
+                }
+            }
+        }
+    }
+
+    /*
+    * For equal rates and whole rate ratios the default remixer and resampler pick the same frames,
+    * the default resampler may only stop a few frames earlier.
+    */
+    @Test
+    public void fusedMatchesDefaultRemixerAndResampler() {
+        final int[][] rates = {{44100, 44100}, {22050, 44100}, {44100, 22050}};
+        for (int[] rate : rates) {
+            for (int inputChannelCount = 1; inputChannelCount <= 2; inputChannelCount++) {
+                for (int outputChannelCount = 1; outputChannelCount <= 2; outputChannelCount++) {
+                    short[] input = ramp(4410 * inputChannelCount);
+                    AudioBufferConverter separate = new AudioBufferConverter(new DefaultAudioRemixer(), new DefaultAudioResampler());
+                    short[] expected = toArray(separate.convert(ShortBuffer.wrap(input),
+                            rate[0], inputChannelCount, rate[1], outputChannelCount));
+                    short[] actual = fused(input, input.length, rate[0], inputChannelCount, rate[1], outputChannelCount);
+
+                    assertTrue(actual.length >= expected.length);
+                    for (int i = 0; i < expected.length; i++) {
+                        assertEquals(rate[0] + "->" + rate[1] + " " + inputChannelCount + "->" + outputChannelCount
+                                + " at " + i, expected[i], actual[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void chunkedConversionEqualsWholeConversion() {
+        for (int[] rates : RATES) {
+            for (int channelCount = 1; channelCount <= 2; channelCount++) {
+                short[] input = ramp(4410 * channelCount);
+                short[] whole = fused(input, input.length, rates[0], channelCount, rates[1], 2);
+                for (int chunkFrames : new int[]{1, 13, 1000}) {
+                    assertArrayEquals(rates[0] + "->" + rates[1] + " chunk " + chunkFrames, whole,
+                            fused(input, chunkFrames * channelCount, rates[0], channelCount, rates[1], 2));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package zeroonezero.android.audio_mixer;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LookaheadLimiterTest {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    /*
+    * Noise with bursts up to 'maxLevel' times full scale, so the gain has to go down and recover again
+    */
+    private static float[] loudSignal(int size, float maxLevel, long seed) {
+        Random random = new Random(seed);
+        float[] values = new float[size];
+        float level = 1f;
+        for (int i = 0; i < size; i++) {
+            if (i % 500 == 0) level = random.nextFloat() * maxLevel;
+            values[i] = (random.nextFloat() * 2 - 1) * level * Short.MAX_VALUE;
+        }
+        return values;
+    }
+
+    /*
+    * Feeds the values in chunks of random sizes and flushes at the end
+    */
+    private static short[] limit(LookaheadLimiter limiter, float[] input, long seed) {
+        Random random = new Random(seed);
+        short[] output = new short[input.length + limiter.getMaxBufferedSize()];
+        int taken = 0;
+        int put = 0;
+        while (taken < input.length) {
+            final int size = Math.min(input.length - taken, 1 + random.nextInt(700));
+            final int buffered = limiter.getBufferedSize();
+            final int count = limiter.process(input, taken, size, output, put);
+            assertTrue("put more than it was given and held back", count <= size + buffered);
+            taken += size;
+            put += count;
+        }
+        put += limiter.flush(output, put);
+        assertEquals(0, limiter.getBufferedSize());
+        assertEquals("every value is put out", input.length, put);
+        return output;
+    }
+
+    @Test
+    public void neverExceedsCeiling() {
+        for (int channelCount = 1; channelCount <= 2; channelCount++) {
+            for (long seed = 0; seed < 5; seed++) {
+                LookaheadLimiter limiter = new LookaheadLimiter(SAMPLE_RATE, channelCount);
+                float[] input = loudSignal(100000 * channelCount, 4f, seed);
+                short[] output = limit(limiter, input, seed);
+
+                for (int i = 0; i < input.length; i++) {
+                    if (Math.abs(output[i]) > LookaheadLimiter.DEFAULT_CEILING) {
+                        fail("Value " + i + " is " + output[i] + " with " + channelCount + " channels");
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void partialLastFrameIsLimited() {
+        // Stereo with an odd number of values, so the last frame has one value only
+        float[] input = loudSignal(10001, 4f, 7);
+        input[input.length - 1] = 4f * Short.MAX_VALUE;
+        short[] output = limit(new LookaheadLimiter(SAMPLE_RATE, 2), input, 7);
+
+        final short last = output[input.length - 1];
+        assertTrue("last value is " + last, last > 0 && last <= LookaheadLimiter.DEFAULT_CEILING);
+    }
+
+    @Test
+    public void quietSignalIsUnchanged() {
+        float[] input = loudSignal(20000, 0.9f, 3);
+        short[] output = limit(new LookaheadLimiter(SAMPLE_RATE, 2), input, 3);
+
+        for (int i = 0; i < input.length; i++) {
+            assertEquals("value " + i, Math.round(input[i]), output[i]);
+        }
+    }
+}
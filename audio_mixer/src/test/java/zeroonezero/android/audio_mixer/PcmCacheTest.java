@@ -0,0 +1,163 @@
+package zeroonezero.android.audio_mixer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class PcmCacheTest {
+
+    private static final int ENTRY_SIZE = 1000;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("pcm-cache-test", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        directory.delete();
+    }
+
+    /*
+    * Writes a temp file of the given size and puts it into the cache
+    */
+    private static File put(PcmCache cache, String key, int size) throws IOException {
+        File tempFile = cache.createTempFile();
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            out.write(new byte[size]);
+        } finally {
+            out.close();
+        }
+        return cache.put(key, tempFile);
+    }
+
+    private int countFiles(String suffix) {
+        int count = 0;
+        for (File file : directory.listFiles()) {
+            if (file.getName().endsWith(suffix)) count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void keepsTotalSizeWithinMaxSize() throws IOException {
+        PcmCache cache = new PcmCache(directory, 3 * ENTRY_SIZE);
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(put(cache, "entry" + i, ENTRY_SIZE));
+            assertTrue(cache.getSize() <= cache.getMaxSize());
+        }
+        assertEquals(3 * ENTRY_SIZE, cache.getSize());
+        assertEquals(3, countFiles(".pcm"));
+        assertEquals(0, countFiles(".tmp"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        PcmCache cache = new PcmCache(directory, 3 * ENTRY_SIZE);
+        put(cache, "a", ENTRY_SIZE);
+        put(cache, "b", ENTRY_SIZE);
+        put(cache, "c", ENTRY_SIZE);
+
+        // 'a' is used again, so 'b' is the least recently used
+        assertNotNull(cache.get("a"));
+        put(cache, "d", ENTRY_SIZE);
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedWhenFileTimesAreEqual() throws IOException {
+        PcmCache cache = new PcmCache(directory, 3 * ENTRY_SIZE);
+        put(cache, "a", ENTRY_SIZE);
+        put(cache, "b", ENTRY_SIZE);
+        put(cache, "c", ENTRY_SIZE);
+        assertNotNull(cache.get("a"));
+
+        // As on filesystems where times can't be set or have whole seconds only
+        final long time = directory.lastModified() - 10000;
+        for (File file : directory.listFiles()) file.setLastModified(time);
+
+        // Uses may even be within the same millisecond
+        put(cache, "d", ENTRY_SIZE);
+
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+    }
+
+    @Test
+    public void evictsByFileTimesForEntriesOfOtherCaches() throws IOException {
+        PcmCache other = new PcmCache(directory, 3 * ENTRY_SIZE);
+        File old = put(other, "old", ENTRY_SIZE);
+        File recent = put(other, "recent", ENTRY_SIZE);
+        assertTrue(old.setLastModified(recent.lastModified() - 10000));
+
+        PcmCache cache = new PcmCache(directory, 2 * ENTRY_SIZE);
+        put(cache, "new", ENTRY_SIZE);
+
+        assertNull(cache.get("old"));
+        assertNotNull(cache.get("recent"));
+        assertNotNull(cache.get("new"));
+    }
+
+    @Test
+    public void doesNotCacheEntryLargerThanMaxSize() throws IOException {
+        PcmCache cache = new PcmCache(directory, 3 * ENTRY_SIZE);
+        put(cache, "a", ENTRY_SIZE);
+        put(cache, "b", ENTRY_SIZE);
+
+        assertNull(put(cache, "large", 4 * ENTRY_SIZE));
+
+        // Nothing was evicted for it and its temp file is gone
+        assertNull(cache.get("large"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+        assertEquals(2 * ENTRY_SIZE, cache.getSize());
+        assertEquals(0, countFiles(".tmp"));
+    }
+
+    @Test
+    public void deletesStaleTempFiles() throws IOException {
+        PcmCache cache = new PcmCache(directory, 3 * ENTRY_SIZE);
+
+        // Left behind by a killed process
+        File stale = cache.createTempFile();
+        assertTrue(stale.setLastModified(System.currentTimeMillis() - PcmCache.STALE_TEMP_AGE_MS - 1000));
+        // Being written by someone else
+        File writing = cache.createTempFile();
+
+        put(cache, "a", ENTRY_SIZE);
+
+        assertFalse(stale.exists());
+        assertTrue(writing.exists());
+    }
+
+    @Test
+    public void clearDeletesAllEntries() throws IOException {
+        PcmCache cache = new PcmCache(directory, 3 * ENTRY_SIZE);
+        put(cache, "a", ENTRY_SIZE);
+        put(cache, "b", ENTRY_SIZE);
+        cache.clear();
+
+        assertEquals(0, cache.getSize());
+        assertNull(cache.get("a"));
+        assertNotNull(put(cache, "a", ENTRY_SIZE));
+    }
+}
@@ -0,0 +1,117 @@
+package zeroonezero.android.audio_mixer;
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class PcmRingBufferTest {
+
+    private static final int VALUE_COUNT = 1000000;
+
+    private static Thread startProducer(final PcmRingBuffer ring, final int chunkSize,
+                                        final AtomicReference<Throwable> failure) {
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try{
+                    short[] chunk = new short[chunkSize];
+                    for(int written = 0; written < VALUE_COUNT; written += chunkSize){
+                        final int count = Math.min(chunkSize, VALUE_COUNT - written);
+                        for(int i = 0; i < count; i++) chunk[i] = (short) (written + i);
+                        if(!ring.write(chunk, 0, count)) return;
+                    }
+                    ring.close();
+                }catch (Throwable t){
+                    failure.set(t);
+                    ring.close(t);
+                }
+            }
+        });
+        producer.start();
+        return producer;
+    }
+
+    @Test(timeout = 30000)
+    public void consumerReadsEveryValueInOrder() throws Exception {
+        // Sizes which don't divide each other, so copies wrap around the ring at different places
+        final int[][] sizes = {{64, 7, 5}, {1000, 333, 1024}, {4096, 4096, 4096}, {1, 1, 1}};
+        for(int[] size : sizes){
+            PcmRingBuffer ring = new PcmRingBuffer(size[0]);
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread producer = startProducer(ring, size[1], failure);
+
+            short[] chunk = new short[size[2]];
+            int total = 0;
+            int read;
+            while((read = ring.read(chunk, 0, chunk.length)) > 0){
+                for(int i = 0; i < read; i++){
+                    if(chunk[i] != (short) (total + i)) fail("Value " + (total + i) + " is " + chunk[i]);
+                }
+                total += read;
+            }
+
+            producer.join();
+            assertNull(failure.get());
+            assertEquals(VALUE_COUNT, total);
+            assertEquals(0, ring.available());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void bufferReadsEveryValueInOrder() throws Exception {
+        PcmRingBuffer ring = new PcmRingBuffer(500);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread producer = startProducer(ring, 77, failure);
+
+        ShortBuffer buffer = ShortBuffer.allocate(129);
+        int total = 0;
+        while(true){
+            buffer.clear();
+            if(ring.read(buffer) == 0) break;
+            buffer.flip();
+            while(buffer.hasRemaining()){
+                short value = buffer.get();
+                if(value != (short) total) fail("Value " + total + " is " + value);
+                total++;
+            }
+        }
+
+        producer.join();
+        assertNull(failure.get());
+        assertEquals(VALUE_COUNT, total);
+    }
+
+    @Test(timeout = 30000)
+    public void abortUnblocksProducer() throws Exception {
+        PcmRingBuffer ring = new PcmRingBuffer(16);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread producer = startProducer(ring, 10, failure);
+
+        short[] chunk = new short[8];
+        assertEquals(8, ring.read(chunk, 0, chunk.length));
+        ring.abort();
+
+        producer.join();
+        assertNull(failure.get());
+        assertFalse(ring.isClosed());
+    }
+
+    @Test(timeout = 30000)
+    public void producerErrorIsThrownAfterRemainingValues() {
+        PcmRingBuffer ring = new PcmRingBuffer(16);
+        ring.write(new short[]{1, 2, 3}, 0, 3);
+        ring.close(new IllegalStateException("failed"));
+
+        short[] chunk = new short[8];
+        assertEquals(3, ring.read(chunk, 0, chunk.length));
+        try{
+            ring.read(chunk, 0, chunk.length);
+            fail("Producer's error should be thrown");
+        }catch (RuntimeException e){
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package zeroonezero.android.audio_mixer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.*;
+
+public class WavDecoderTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNEL_COUNT = 2;
+    private static final int FRAME_COUNT = 10000;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("wav-decoder-test", ".wav");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static short expectedValue(int index) {
+        return (short) (index * 3);
+    }
+
+    /*
+    * Samples of 'expectedValue' in the given format
+    */
+    private static ByteBuffer samples(int audioFormat, int bitsPerSample) {
+        final int count = FRAME_COUNT * CHANNEL_COUNT;
+        ByteBuffer data = ByteBuffer.allocate(count * bitsPerSample / 8).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < count; i++) {
+            final short value = expectedValue(i);
+            if (audioFormat == WavHeader.FORMAT_IEEE_FLOAT) {
+                data.putFloat(value / (float) Short.MAX_VALUE);
+            } else if (bitsPerSample == 8) {
+                data.put((byte) ((value >> 8) + 128));
+            } else if (bitsPerSample == 16) {
+                data.putShort(value);
+            } else if (bitsPerSample == 24) {
+                data.put((byte) 0x7F);
+                data.putShort(value);
+            } else {
+                data.putInt((value << 16) | 0x7FFF);
+            }
+        }
+        data.flip();
+        return data;
+    }
+
+    private static ByteBuffer fmtChunk(int audioFormat, int bitsPerSample, boolean extensible) {
+        ByteBuffer chunk = ByteBuffer.allocate(extensible ? 48 : 24).order(ByteOrder.LITTLE_ENDIAN);
+        chunk.putInt(0x20746d66); // "fmt "
+        chunk.putInt(extensible ? 40 : 16);
+        chunk.putShort((short) (extensible ? 0xFFFE : audioFormat));
+        chunk.putShort((short) CHANNEL_COUNT);
+        chunk.putInt(SAMPLE_RATE);
+        chunk.putInt(SAMPLE_RATE * CHANNEL_COUNT * bitsPerSample / 8);
+        chunk.putShort((short) (CHANNEL_COUNT * bitsPerSample / 8));
+        chunk.putShort((short) bitsPerSample);
+        if (extensible) {
+            chunk.putShort((short) 22);
+            chunk.putShort((short) bitsPerSample);
+            chunk.putInt(3); // channel mask
+            chunk.putShort((short) audioFormat); // start of the sub-format GUID
+            chunk.put(new byte[14]);
+        }
+        chunk.flip();
+        return chunk;
+    }
+
+    private static ByteBuffer chunk(int id, ByteBuffer data) {
+        final int size = data.remaining();
+        ByteBuffer chunk = ByteBuffer.allocate(8 + size + (size & 1)).order(ByteOrder.LITTLE_ENDIAN);
+        chunk.putInt(id);
+        chunk.putInt(size);
+        chunk.put(data);
+        chunk.position(chunk.capacity());
+        chunk.flip();
+        return chunk;
+    }
+
+    private void writeWav(ByteBuffer... chunks) throws IOException {
+        int size = 4;
+        for (ByteBuffer chunk : chunks) size += chunk.remaining();
+        ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0x46464952); // "RIFF"
+        header.putInt(size);
+        header.putInt(0x45564157); // "WAVE"
+        header.flip();
+
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.getChannel().write(header);
+            for (ByteBuffer chunk : chunks) out.getChannel().write(chunk);
+        }
+    }
+
+    private void writeWav(int audioFormat, int bitsPerSample, boolean extensible) throws IOException {
+        writeWav(fmtChunk(audioFormat, bitsPerSample, extensible), chunk(0x61746164, samples(audioFormat, bitsPerSample)));
+    }
+
+    private WavHeader readHeader() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return WavHeader.read(raf.getChannel(), 0, raf.length());
+        }
+    }
+
+    private static ShortBuffer asShortBuffer(ByteBuffer byteBuffer) {
+        // Duplicate loses the byte order
+        return byteBuffer.duplicate().order(byteBuffer.order()).asShortBuffer();
+    }
+
+    /*
+    * Decodes the whole file and checks every value, 'tolerance' is for lossy conversions.
+    */
+    private void assertDecodes(int tolerance) throws IOException {
+        WavDecoder decoder = new WavDecoder(file.getPath());
+        try {
+            assertEquals(SAMPLE_RATE, decoder.getSampleRate());
+            assertEquals(CHANNEL_COUNT, decoder.getChannelCount());
+            decoder.start();
+
+            int index = 0;
+            while (true) {
+                PcmDecoder.DecodedBufferData data = decoder.decode();
+                if (data.index < 0) break;
+                ShortBuffer values = asShortBuffer(data.byteBuffer);
+                while (values.hasRemaining()) {
+                    final int value = values.get();
+                    if (Math.abs(value - expectedValue(index)) > tolerance) {
+                        fail("Value " + index + " is " + value + " instead of " + expectedValue(index));
+                    }
+                    index++;
+                }
+                decoder.releaseOutputBuffer(data.index);
+            }
+            assertEquals(FRAME_COUNT * CHANNEL_COUNT, index);
+            assertTrue(decoder.isDecodingDone());
+        } finally {
+            decoder.release();
+        }
+    }
+
+    @Test
+    public void readsPcmHeader() throws IOException {
+        writeWav(WavHeader.FORMAT_PCM, 16, false);
+        WavHeader header = readHeader();
+
+        assertNotNull(header);
+        assertEquals(WavHeader.FORMAT_PCM, header.audioFormat);
+        assertEquals(CHANNEL_COUNT, header.channelCount);
+        assertEquals(SAMPLE_RATE, header.sampleRate);
+        assertEquals(16, header.bitsPerSample);
+        assertEquals(4, header.blockAlign);
+        assertEquals(12 + 24 + 8, header.dataOffset);
+        assertEquals(FRAME_COUNT, header.getFrameCount());
+        assertTrue(header.isPcm16());
+    }
+
+    @Test
+    public void readsExtensibleFormat() throws IOException {
+        writeWav(WavHeader.FORMAT_IEEE_FLOAT, 32, true);
+        WavHeader header = readHeader();
+
+        assertNotNull(header);
+        assertEquals(WavHeader.FORMAT_IEEE_FLOAT, header.audioFormat);
+        assertEquals(32, header.bitsPerSample);
+        assertEquals(12 + 48 + 8, header.dataOffset);
+        assertTrue(header.isSupported());
+    }
+
+    @Test
+    public void skipsPaddedOddChunks() throws IOException {
+        ByteBuffer list = ByteBuffer.wrap(new byte[]{'I', 'N', 'F', 'O', 'x'});
+        ByteBuffer fact = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, FRAME_COUNT);
+        writeWav(chunk(0x5453494c, list), fmtChunk(WavHeader.FORMAT_PCM, 16, false),
+                chunk(0x74636166, fact), chunk(0x61746164, samples(WavHeader.FORMAT_PCM, 16)));
+        WavHeader header = readHeader();
+
+        assertNotNull(header);
+        // LIST chunk takes 8 bytes and 5 bytes of data with a byte of padding
+        assertEquals(12 + 14 + 24 + 12 + 8, header.dataOffset);
+        assertEquals(FRAME_COUNT, header.getFrameCount());
+        assertDecodes(0);
+    }
+
+    @Test
+    public void rejectsShortFmtChunk() throws IOException {
+        ByteBuffer fmt = ByteBuffer.allocate(14).order(ByteOrder.LITTLE_ENDIAN);
+        fmt.putShort((short) WavHeader.FORMAT_PCM).putShort((short) CHANNEL_COUNT).putInt(SAMPLE_RATE)
+                .putInt(SAMPLE_RATE * 4).putShort((short) 4);
+        fmt.flip();
+        writeWav(chunk(0x20746d66, fmt), chunk(0x61746164, samples(WavHeader.FORMAT_PCM, 16)));
+
+        assertNull(readHeader());
+        assertNull(WavDecoder.sniff(file.getPath()));
+    }
+
+    @Test
+    public void rejectsDataBeforeFmt() throws IOException {
+        writeWav(chunk(0x61746164, samples(WavHeader.FORMAT_PCM, 16)), fmtChunk(WavHeader.FORMAT_PCM, 16, false));
+        assertNull(readHeader());
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[]{'I', 'D', '3', 4, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+        }
+        assertNull(readHeader());
+        assertNull(WavDecoder.sniff(file.getPath()));
+    }
+
+    @Test
+    public void decodesPcm16() throws IOException {
+        writeWav(WavHeader.FORMAT_PCM, 16, false);
+        assertDecodes(0);
+    }
+
+    @Test
+    public void convertsPcm8() throws IOException {
+        writeWav(WavHeader.FORMAT_PCM, 8, false);
+        // Only the most significant byte is kept
+        assertDecodes(255);
+    }
+
+    @Test
+    public void convertsPcm24() throws IOException {
+        writeWav(WavHeader.FORMAT_PCM, 24, false);
+        assertDecodes(0);
+    }
+
+    @Test
+    public void convertsPcm32() throws IOException {
+        writeWav(WavHeader.FORMAT_PCM, 32, false);
+        assertDecodes(0);
+    }
+
+    @Test
+    public void convertsFloat() throws IOException {
+        writeWav(WavHeader.FORMAT_IEEE_FLOAT, 32, false);
+        assertDecodes(0);
+    }
+
+    @Test
+    public void convertsExtensibleFloat() throws IOException {
+        writeWav(WavHeader.FORMAT_IEEE_FLOAT, 32, true);
+        assertDecodes(0);
+    }
+
+    @Test
+    public void clampsFloatOutOfRange() throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(4 * CHANNEL_COUNT * 2).order(ByteOrder.LITTLE_ENDIAN);
+        data.putFloat(2f).putFloat(-2f).putFloat(1f).putFloat(-1f);
+        data.flip();
+        writeWav(fmtChunk(WavHeader.FORMAT_IEEE_FLOAT, 32, false), chunk(0x61746164, data));
+
+        WavDecoder decoder = new WavDecoder(file.getPath());
+        try {
+            decoder.start();
+            ShortBuffer values = asShortBuffer(decoder.decode().byteBuffer);
+            assertEquals(Short.MAX_VALUE, values.get(0));
+            assertEquals(Short.MIN_VALUE, values.get(1));
+            assertEquals(Short.MAX_VALUE, values.get(2));
+            assertEquals(-Short.MAX_VALUE, values.get(3));
+        } finally {
+            decoder.release();
+        }
+    }
+}
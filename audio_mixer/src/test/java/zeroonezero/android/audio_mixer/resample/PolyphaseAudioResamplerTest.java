@@ -0,0 +1,100 @@
+package zeroonezero.android.audio_mixer.resample;
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PolyphaseAudioResamplerTest {
+
+    private static final int[][] RATES = {
+            {44100, 48000}, {48000, 44100}, {22050, 44100}, {44100, 22050},
+            {8000, 44100}, {44100, 16000}, {32000, 48000}, {48000, 48000}
+    };
+
+    private static final ResamplingQuality[] QUALITIES = {
+            ResamplingQuality.LOW, ResamplingQuality.MEDIUM, ResamplingQuality.HIGH
+    };
+
+    private static short[] noise(int size, long seed) {
+        Random random = new Random(seed);
+        short[] values = new short[size];
+        for (int i = 0; i < size; i++) values[i] = (short) (random.nextInt(20000) - 10000);
+        return values;
+    }
+
+    /*
+    * Resamples the input in chunks of 'chunkSize' values, then flushes.
+    */
+    private static short[] resample(StreamingAudioResampler resampler, short[] input, int chunkSize,
+                                    int inputSampleRate, int outputSampleRate, int channels) {
+        ShortBuffer output = ShortBuffer.allocate(
+                (int) ((long) input.length * outputSampleRate / inputSampleRate) + 64 * channels);
+        for (int position = 0; position < input.length; position += chunkSize) {
+            ShortBuffer chunk = ShortBuffer.wrap(input, position, Math.min(chunkSize, input.length - position));
+            int expected = resampler.getResampledSize(chunk.remaining(), inputSampleRate, outputSampleRate, channels);
+            int before = output.position();
+            resampler.resample(chunk, inputSampleRate, output, outputSampleRate, channels);
+            assertFalse(chunk.hasRemaining());
+            assertEquals("resampled size", expected, output.position() - before);
+        }
+        int expectedFlush = resampler.getFlushSize();
+        int before = output.position();
+        resampler.flush(output);
+        assertEquals("flush size", expectedFlush, output.position() - before);
+
+        short[] values = new short[output.position()];
+        output.flip();
+        output.get(values);
+        return values;
+    }
+
+    @Test
+    public void outputLengthOfWholeStream() {
+        for (ResamplingQuality quality : QUALITIES) {
+            for (int[] rates : RATES) {
+                for (int channels = 1; channels <= 2; channels++) {
+                    final int frames = 10007;
+                    short[] input = noise(frames * channels, 1);
+                    short[] output = resample(new PolyphaseAudioResampler(quality), input, input.length,
+                            rates[0], rates[1], channels);
+
+                    long expectedFrames = ((long) frames * rates[1] + rates[0] - 1) / rates[0];
+                    assertEquals(quality + " " + rates[0] + "->" + rates[1] + " x" + channels,
+                            expectedFrames * channels, output.length);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void chunkedStreamEqualsWholeStream() {
+        for (ResamplingQuality quality : QUALITIES) {
+            for (int[] rates : RATES) {
+                for (int channels = 1; channels <= 2; channels++) {
+                    short[] input = noise(8000 * channels, 2);
+                    short[] whole = resample(new PolyphaseAudioResampler(quality), input, input.length,
+                            rates[0], rates[1], channels);
+                    // Odd chunk sizes put the boundaries at every phase of the filter
+                    for (int chunkFrames : new int[]{1, 7, 113, 1024}) {
+                        short[] chunked = resample(new PolyphaseAudioResampler(quality), input, chunkFrames * channels,
+                                rates[0], rates[1], channels);
+                        assertArrayEquals(quality + " " + rates[0] + "->" + rates[1] + " x" + channels
+                                + " chunk " + chunkFrames, whole, chunked);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void instanceCanBeReusedAfterFlush() {
+        short[] input = noise(4000, 3);
+        PolyphaseAudioResampler resampler = new PolyphaseAudioResampler(ResamplingQuality.MEDIUM);
+        short[] first = resample(resampler, input, 500, 44100, 48000, 2);
+        short[] second = resample(resampler, input, 500, 44100, 48000, 2);
+        assertArrayEquals(first, second);
+    }
+}
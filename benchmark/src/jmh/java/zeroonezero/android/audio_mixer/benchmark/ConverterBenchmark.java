@@ -0,0 +1,66 @@
+package zeroonezero.android.audio_mixer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
+
+import zeroonezero.android.audio_mixer.AudioBufferConverter;
+import zeroonezero.android.audio_mixer.resample.ResamplingQuality;
+
+/**
+ * Remixing and resampling together as GeneralAudioInput does for every decoded buffer.
+ * One operation is one input frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ConverterBenchmark {
+
+    static final int FRAMES = 4096;
+
+    @Param({"1", "2"})
+    public int inputChannelCount;
+
+    @Param({"1", "2"})
+    public int outputChannelCount;
+
+    /*
+    * Input rate and output rate
+    */
+    @Param({"44100:44100", "22050:44100", "48000:44100"})
+    public String rates;
+
+    @Param({"FAST", "MEDIUM"})
+    public ResamplingQuality quality;
+
+    private AudioBufferConverter converter;
+    private int inputSampleRate;
+    private int outputSampleRate;
+    private ShortBuffer input;
+
+    @Setup
+    public void setUp() {
+        String[] parts = rates.split(":");
+        inputSampleRate = Integer.parseInt(parts[0]);
+        outputSampleRate = Integer.parseInt(parts[1]);
+
+        converter = new AudioBufferConverter(quality);
+        input = ShortBuffer.wrap(SyntheticPcm.generate(FRAMES, inputChannelCount, 3));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public ShortBuffer convert() {
+        input.rewind();
+        return converter.convert(input, inputSampleRate, inputChannelCount, outputSampleRate, outputChannelCount);
+    }
+}
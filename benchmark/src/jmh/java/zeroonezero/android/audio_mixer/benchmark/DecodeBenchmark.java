@@ -0,0 +1,75 @@
+package zeroonezero.android.audio_mixer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
+
+import zeroonezero.android.audio_mixer.AudioBufferConverter;
+import zeroonezero.android.audio_mixer.PcmDecoder;
+import zeroonezero.android.audio_mixer.ShortViewCache;
+import zeroonezero.android.audio_mixer.WavAudioOutput;
+import zeroonezero.android.audio_mixer.WavDecoder;
+
+/**
+ * Decoding and converting loop of GeneralAudioInput, with a looping WAV source instead of MediaCodec.
+ * One operation is one decoded buffer. It is the allocation check of the decoding path:
+ * 'gc.alloc.rate.norm' must stay at about 0 bytes, any per buffer allocation shows up there.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DecodeBenchmark {
+
+    static final int FRAMES = 44100;
+
+    @Param({"44100", "48000"})
+    public int outputSampleRate;
+
+    private File file;
+    private WavDecoder decoder;
+    private AudioBufferConverter converter;
+    private ShortViewCache views;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("decode-benchmark", ".wav");
+        WavAudioOutput output = new WavAudioOutput(file.getAbsolutePath());
+        output.start(44100, 2, 0);
+        output.write(ShortBuffer.wrap(SyntheticPcm.generate(FRAMES, 2, 5)));
+        output.end();
+        output.release();
+
+        decoder = new WavDecoder(file.getAbsolutePath());
+        decoder.setLoopingEnabled(true);
+        decoder.start();
+        converter = new AudioBufferConverter();
+        views = new ShortViewCache();
+    }
+
+    @TearDown
+    public void tearDown() {
+        decoder.stop();
+        decoder.release();
+        file.delete();
+    }
+
+    @Benchmark
+    public ShortBuffer decode() {
+        PcmDecoder.DecodedBufferData data = decoder.decode();
+        ShortBuffer converted = converter.convert(views.get(data.index, data.byteBuffer),
+                decoder.getSampleRate(), decoder.getChannelCount(), outputSampleRate, 2);
+        decoder.releaseOutputBuffer(data.index);
+        return converted;
+    }
+}
@@ -0,0 +1,74 @@
+package zeroonezero.android.audio_mixer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import zeroonezero.android.audio_mixer.LookaheadLimiter;
+import zeroonezero.android.audio_mixer.ParallelMixKernel;
+import zeroonezero.android.audio_mixer.input.AudioInput;
+
+/**
+ * Parallel mixing as done by AudioMixer for each encoder input buffer.
+ * One operation is one mixed output value.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MixBenchmark {
+
+    static final int VALUES = 16384;
+
+    @Param({"1", "2", "4", "8"})
+    public int inputCount;
+
+    @Param({"256", "1024", "4096"})
+    public int blockSize;
+
+    @Param({"1.0", "0.5"})
+    public float volume;
+
+    @Param({"false", "true"})
+    public boolean limiter;
+
+    private List<AudioInput> inputs;
+    private ParallelMixKernel kernel;
+    private ShortBuffer output;
+
+    @Setup
+    public void setUp() {
+        inputs = new ArrayList<>();
+        for (int i = 0; i < inputCount; i++) {
+            AudioInput input = new SyntheticAudioInput(SyntheticPcm.generate(VALUES / 2 + 7 * i, 2, i));
+            input.setVolume(volume);
+            input.start(44100, 2);
+            inputs.add(input);
+        }
+        kernel = new ParallelMixKernel(blockSize);
+        if (limiter) kernel.setLimiter(new LookaheadLimiter(44100, 2));
+        output = ShortBuffer.allocate(VALUES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public ShortBuffer mix() {
+        output.clear();
+        final AudioInput baseInput = inputs.get(0);
+        while (output.hasRemaining()) {
+            // Limiter holds back some values, so the last few may not fit
+            if (kernel.mix(baseInput, inputs, output) <= 0) break;
+        }
+        return output;
+    }
+}
@@ -0,0 +1,67 @@
+package zeroonezero.android.audio_mixer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
+
+import zeroonezero.android.audio_mixer.remix.AudioRemixer;
+
+/**
+ * Channel remixing of one decoder-sized buffer. One operation is one input frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RemixBenchmark {
+
+    static final int FRAMES = 4096;
+
+    @Param({"DOWNMIX", "UPMIX", "PASSTHROUGH"})
+    public String remixer;
+
+    private AudioRemixer audioRemixer;
+    private int inputChannelCount;
+    private int outputChannelCount;
+    private ShortBuffer input;
+    private ShortBuffer output;
+
+    @Setup
+    public void setUp() {
+        switch (remixer) {
+            case "DOWNMIX":
+                audioRemixer = AudioRemixer.DOWNMIX;
+                inputChannelCount = 2;
+                outputChannelCount = 1;
+                break;
+            case "UPMIX":
+                audioRemixer = AudioRemixer.UPMIX;
+                inputChannelCount = 1;
+                outputChannelCount = 2;
+                break;
+            default:
+                audioRemixer = AudioRemixer.PASSTHROUGH;
+                inputChannelCount = 2;
+                outputChannelCount = 2;
+        }
+        input = ShortBuffer.wrap(SyntheticPcm.generate(FRAMES, inputChannelCount, 1));
+        output = ShortBuffer.allocate(audioRemixer.getRemixedSize(input.capacity(), inputChannelCount, outputChannelCount));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public ShortBuffer remix() {
+        input.rewind();
+        output.clear();
+        audioRemixer.remix(input, inputChannelCount, output, outputChannelCount);
+        return output;
+    }
+}
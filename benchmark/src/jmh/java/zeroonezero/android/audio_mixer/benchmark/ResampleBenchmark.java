@@ -0,0 +1,70 @@
+package zeroonezero.android.audio_mixer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
+
+import zeroonezero.android.audio_mixer.resample.AudioResampler;
+import zeroonezero.android.audio_mixer.resample.DefaultAudioResampler;
+import zeroonezero.android.audio_mixer.resample.PolyphaseAudioResampler;
+import zeroonezero.android.audio_mixer.resample.ResamplingQuality;
+
+/**
+ * Resampling of one decoder-sized buffer. One operation is one input frame.
+ * FAST quality is {@link DefaultAudioResampler}, which delegates to the upsample or downsample resampler.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ResampleBenchmark {
+
+    static final int FRAMES = 4096;
+
+    /*
+    * Input rate and output rate
+    */
+    @Param({"22050:44100", "44100:48000", "48000:44100", "44100:22050"})
+    public String rates;
+
+    @Param({"1", "2"})
+    public int channelCount;
+
+    @Param({"FAST", "LOW", "MEDIUM", "HIGH"})
+    public ResamplingQuality quality;
+
+    private AudioResampler resampler;
+    private int inputSampleRate;
+    private int outputSampleRate;
+    private ShortBuffer input;
+    private ShortBuffer output;
+
+    @Setup
+    public void setUp() {
+        String[] parts = rates.split(":");
+        inputSampleRate = Integer.parseInt(parts[0]);
+        outputSampleRate = Integer.parseInt(parts[1]);
+
+        resampler = quality == ResamplingQuality.FAST ? new DefaultAudioResampler() : new PolyphaseAudioResampler(quality);
+        input = ShortBuffer.wrap(SyntheticPcm.generate(FRAMES, channelCount, 2));
+        int outputFrames = (int) Math.ceil((double) FRAMES * outputSampleRate / inputSampleRate) + 64;
+        output = ShortBuffer.allocate(outputFrames * channelCount);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public ShortBuffer resample() {
+        input.rewind();
+        output.clear();
+        resampler.resample(input, inputSampleRate, output, outputSampleRate, channelCount);
+        return output;
+    }
+}
@@ -0,0 +1,85 @@
+package zeroonezero.android.audio_mixer.benchmark;
+
+import zeroonezero.android.audio_mixer.input.AudioInput;
+
+/**
+ * An endless {@link AudioInput} which loops over pre-generated PCM,
+ * so mixing is measured without any decoding.
+ */
+final class SyntheticAudioInput extends AudioInput {
+
+    private final short[] values;
+    private int position;
+
+    SyntheticAudioInput(short[] values) {
+        this.values = values;
+    }
+
+    @Override
+    public long getStartTimeUs() {
+        return 0;
+    }
+
+    @Override
+    public long getEndTimeUs() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public long getDurationUs() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return -1;
+    }
+
+    @Override
+    public int getBitrate() {
+        return -1;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return -1;
+    }
+
+    @Override
+    public boolean hasRemaining() {
+        return true;
+    }
+
+    @Override
+    public void setStartTimeUs(long timeUs) { }
+
+    @Override
+    public void setEndTimeUs(long timeUs) { }
+
+    @Override
+    public void start(int outputSampleRate, int outputChannelCount) {
+        position = 0;
+    }
+
+    @Override
+    public short getNext() {
+        short value = values[position];
+        position = (position + 1) % values.length;
+        return value;
+    }
+
+    @Override
+    public int read(short[] dst, int off, int len) {
+        int read = 0;
+        while (read < len) {
+            int count = Math.min(len - read, values.length - position);
+            System.arraycopy(values, position, dst, off + read, count);
+            read += count;
+            position = (position + count) % values.length;
+        }
+        return read;
+    }
+
+    @Override
+    public void release() { }
+}
@@ -0,0 +1,26 @@
+package zeroonezero.android.audio_mixer.benchmark;
+
+import java.util.Random;
+
+/**
+ * Deterministic PCM for benchmarks: a few sine partials with some noise,
+ * so values are neither silent nor constant.
+ */
+final class SyntheticPcm {
+
+    private SyntheticPcm() { }
+
+    static short[] generate(int frames, int channelCount, long seed) {
+        final Random random = new Random(seed);
+        final short[] values = new short[frames * channelCount];
+        for (int frame = 0; frame < frames; frame++) {
+            for (int channel = 0; channel < channelCount; channel++) {
+                double phase = 2 * Math.PI * frame / 100.0 * (channel + 1);
+                double value = 0.4 * Math.sin(phase) + 0.2 * Math.sin(phase * 3.7) + 0.05 * random.nextGaussian();
+                values[frame * channelCount + channel] = (short) Math.max(Short.MIN_VALUE,
+                        Math.min(Short.MAX_VALUE, Math.round(value * Short.MAX_VALUE)));
+            }
+        }
+        return values;
+    }
+}